@@ -1,63 +1,58 @@
 package ymatsubara.dslib.classification;
 
-import ymatsubara.dslib.common.BasicAlgebra;
+import ymatsubara.dslib.neighbor.NearestNeighborSearch;
+import ymatsubara.dslib.neighbor.Neighbors;
+import ymatsubara.dslib.neighbor.SpatialIndex;
 import ymatsubara.dslib.structure.FeatureVector;
 import ymatsubara.dslib.statistics.DensityEstimator;
 import ymatsubara.dslib.statistics.Kernel;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 
 public class AnomalyDetector {
-    private double calcLocalOutlierFactor(FeatureVector targetVec, FeatureVector[] vecs, int k) {
-        List<Double> distList = new ArrayList<>();
-        HashMap<Double, List<Integer>> distMap = new HashMap<>();
-        for (int i = 0; i < vecs.length; i++) {
-            FeatureVector vec = vecs[i];
-            double dist = BasicAlgebra.calcEuclideanDistance(vec.getAllValues(), targetVec.getAllValues());
-            distList.add(dist);
-            if (!distMap.containsKey(dist)) {
-                distMap.put(dist, new ArrayList<Integer>());
+    // M. M. Breunig et al. "LOF: Identifying Density-Based Local Outliers"
+    private double[] calcLocalOutlierFactors(Neighbors neighbors) {
+        int size = neighbors.getQuerySize();
+        double[] lrds = new double[size];
+        for (int i = 0; i < size; i++) {
+            int[] indices = neighbors.indices[i];
+            double[] distances = neighbors.distances[i];
+            double sum = 0.0d;
+            for (int j = 0; j < indices.length; j++) {
+                // reachability distance of vecs[i] from its neighbor
+                sum += Math.max(neighbors.getKthDistance(indices[j]), distances[j]);
             }
-            distMap.get(dist).add(i);
+            lrds[i] = (double) indices.length / sum;
         }
 
-        Collections.sort(distList);
-        List<Integer> topKIndexList = new ArrayList<>();
-        while (topKIndexList.size() >= k) {
-            List<Integer> indexList = distMap.get(distList.get(topKIndexList.size()));
-            topKIndexList.addAll(indexList);
-        }
-
-        FeatureVector[] topkVecs = new FeatureVector[k];
-        for (int i = 0; i < k; i++) {
-            topkVecs[i] = vecs[topKIndexList.get(i)];
-        }
-
-        double kthDist = distList.get(k - 1);
-        double lof = 0.0d;
-        for (int i = 0; i < k; i++) {
-            lof += DensityEstimator.calcLocalReachabilityDensity(vecs[i], vecs, k, kthDist);
+        double[] lofs = new double[size];
+        for (int i = 0; i < lofs.length; i++) {
+            int[] indices = neighbors.indices[i];
+            double sum = 0.0d;
+            for (int index : indices) {
+                sum += lrds[index];
+            }
+            lofs[i] = sum / (double) indices.length / lrds[i];
         }
-        return lof / (double) k / DensityEstimator.calcLocalReachabilityDensity(targetVec, vecs, k, kthDist);
+        return lofs;
     }
 
     public double[] getLocalOutlierFactors(FeatureVector[] vecs, int k) {
-        double[] lofs = new double[vecs.length];
-        for (int i = 0; i < lofs.length; i++) {
-            lofs[i] = calcLocalOutlierFactor(vecs[i], vecs, k);
-        }
-        return lofs;
+        return calcLocalOutlierFactors(NearestNeighborSearch.searchKNearestNeighbors(vecs, k));
+    }
+
+    // LOFs of the vectors in the index, whose metric is used as the distance
+    public double[] getLocalOutlierFactors(SpatialIndex index, int k) {
+        return calcLocalOutlierFactors(index.searchKNearestNeighbors(k));
     }
 
     // Local Outlier Factor
     public int[] getOutlierIndicesBasedOnLof(FeatureVector[] vecs, int k, double threshold) {
         List<Integer> outlierIdxList = new ArrayList<>();
-        for (int i = 0; i < vecs.length; i++) {
-            double lof = calcLocalOutlierFactor(vecs[i], vecs, k);
-            if (lof >= threshold) {
+        double[] lofs = getLocalOutlierFactors(vecs, k);
+        for (int i = 0; i < lofs.length; i++) {
+            if (lofs[i] >= threshold) {
                 outlierIdxList.add(i);
             }
         }
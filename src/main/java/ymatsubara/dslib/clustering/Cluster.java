@@ -1,175 +1,61 @@
 package ymatsubara.dslib.clustering;
 
-import ymatsubara.dslib.common.BasicAlgebra;
 import ymatsubara.dslib.structure.FeatureVector;
-import ymatsubara.dslib.util.FeatureVectorUtil;
 import ymatsubara.dslib.statistics.Kernel;
-
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Random;
+import ymatsubara.dslib.util.FeatureVectorReader;
 
 public class Cluster {
     public static final double DEFAULT_KMEANS_TOLERANCE = 1e-4d;
     public static final int DEFAULT_KMEANS_TOLERANCE_COUNT = 1;
 
-    public static void kMeans(int clusterSize, FeatureVector[] vecs, double tolerance) {
-        double[][] centers = new double[clusterSize][vecs[0].getSize()];
-        double[] minValues = new double[centers.length];
-        double[] maxValues = new double[centers.length];
-        FeatureVectorUtil.getEachIndexMinMax(vecs, minValues, maxValues);
-
-        // init weighted centers
-        for (int i = 0; i < centers.length; i++) {
-            for (int j = 0; j < centers[0].length; j++) {
-                Random rand = new Random();
-                double center = maxValues[j] - minValues[j];
-                centers[i][j] = center * rand.nextDouble() + minValues[j];
-            }
-        }
-
-        double diff = Double.MAX_VALUE;
-        HashMap<Integer, List<Integer>> labelMap = new HashMap<>();
-        while (diff > tolerance) {
-            diff = 0.0d;
-            labelMap = new HashMap<>();
-            // find the nearest cluster
-            for (int i = 0; i < vecs.length; i++) {
-                double minDist = Double.MAX_VALUE;
-                int minIndex = 0;
-                for (int j = 0; j < centers.length; j++) {
-                    double dist = BasicAlgebra.calcEuclideanDistance(centers[j], vecs[i].getAllValues());
-                    if (dist < minDist) {
-                        minDist = dist;
-                        minIndex = j;
-                    }
-                }
-
-                if (!labelMap.containsKey(minIndex)) {
-                    labelMap.put(minIndex, new ArrayList<Integer>());
-                }
-                labelMap.get(minIndex).add(i);
-            }
-
-            // update labels
-            for (int label : labelMap.keySet()) {
-                double[] preCenters = new double[centers[0].length];
-                for (int i = 0; i < centers[0].length; i++) {
-                    preCenters[i] = centers[label][i];
-                    centers[label][i] = 0.0d;
-                }
-
-                List<Integer> indexList = labelMap.get(label);
-                for (int index : indexList) {
-                    for (int i = 0; i < centers[0].length; i++) {
-                        centers[label][i] += vecs[index].getValue(i);
-                    }
-                }
-
-                for (int i = 0; i < centers[0].length; i++) {
-                    centers[label][i] /= (double) indexList.size();
-                }
-                diff += BasicAlgebra.calcEuclideanDistance(centers[label], preCenters);
-            }
+    // if indexType is not null, nearest centers are searched with a spatial index of that type built over the centers
+    public static void kMeans(int clusterSize, FeatureVector[] vecs, double tolerance, String indexType) {
+        KMeans kMeans = new KMeans(clusterSize);
+        kMeans.setTolerance(tolerance);
+        if (indexType != null) {
+            kMeans.setAlgorithm(KMeans.LLOYD);
+            kMeans.setIndexType(indexType);
         }
 
         // set labels
-        for (int label : labelMap.keySet()) {
-            List<Integer> indexList = labelMap.get(label);
-            for (int index : indexList) {
-                vecs[index].setLabel(String.valueOf(label));
-            }
+        int[] assignments = kMeans.cluster(vecs);
+        for (int i = 0; i < vecs.length; i++) {
+            vecs[i].setLabel(String.valueOf(assignments[i]));
         }
     }
 
+    public static void kMeans(int clusterSize, FeatureVector[] vecs, double tolerance) {
+        kMeans(clusterSize, vecs, tolerance, null);
+    }
+
     public static void kMeans(int clusterSize, FeatureVector[] vecs) {
         kMeans(clusterSize, vecs, DEFAULT_KMEANS_TOLERANCE);
     }
 
+    // keeps the best of restartSize runs seeded with seed, seed + 1, ... without changing the labels of the vectors
+    public static KMeansModel kMeans(int clusterSize, FeatureVector[] vecs, int restartSize, long seed) {
+        KMeans kMeans = new KMeans(clusterSize);
+        kMeans.setSeed(seed);
+        return kMeans.fit(vecs, restartSize);
+    }
+
+    // clusters the vectors of a FeatureVectorUtil input file by mini-batch k-means without loading the whole file and returns the centers
+    public static double[][] miniBatchKMeans(int clusterSize, String inputFilePath, boolean hasId, int batchSize) {
+        MiniBatchKMeans miniBatchKMeans = new MiniBatchKMeans(clusterSize);
+        miniBatchKMeans.setBatchSize(batchSize);
+        return miniBatchKMeans.cluster(new FeatureVectorReader(inputFilePath, hasId));
+    }
+
     public static void kernelKMeans(int clusterSize, FeatureVector[] vecs, Kernel kernel, int tolerance) {
         if (kernel.getType().equals(Kernel.LINEAR_KERNEL_TYPE)) {
             kMeans(clusterSize, vecs, tolerance);
         } else {
-            HashMap<Integer, List<Integer>> labelMap = new HashMap<>();
-            // init weighted centers
-            for (int i = 0; i < vecs.length; i++) {
-                Random rand = new Random();
-                int index = rand.nextInt(clusterSize);
-                if (!labelMap.containsKey(index)) {
-                    labelMap.put(index, new ArrayList<Integer>());
-                }
-                labelMap.get(index).add(i);
-            }
-
-            int diff = Integer.MAX_VALUE;
-            while (diff > tolerance) {
-                diff = 0;
-                HashMap<Integer, List<Integer>> tmpLabelMap = new HashMap<>();
-                double[] commonDists = new double[clusterSize];
-                for (int i = 0; i < commonDists.length; i++) {
-                    commonDists[i] = -Double.MAX_VALUE;
-                }
-
-                // find the nearest cluster
-                for (int i = 0; i < vecs.length; i++) {
-                    double minDist = Double.MAX_VALUE;
-                    int minIndex = 0;
-                    for (int j = 0; j < clusterSize; j++) {
-                        double dist = 0.0d;
-                        List<Integer> indexList = labelMap.get(j);
-                        double sum = 0.0d;
-                        int indexSize = indexList.size();
-                        for (int k = 0; k < indexSize; k++) {
-                            sum += kernel.kernelFunction(vecs[indexList.get(k)].getAllValues(), vecs[i].getAllValues());
-                        }
-
-                        dist = -sum * 2.0d / (double) indexSize;
-                        if (commonDists[j] == -Double.MAX_VALUE) {
-                            sum = 0.0d;
-                            for (int k = 0; k < indexSize; k++) {
-                                for (int l = k; l < indexSize; l++) {
-                                    sum += kernel.kernelFunction(vecs[indexList.get(k)].getAllValues(), vecs[indexList.get(l)].getAllValues());
-                                }
-                            }
-                        } else {
-                            dist += commonDists[j] * 2.0d / Math.pow((double) indexList.size(), 2.0d);
-                        }
-
-                        if (dist < minDist) {
-                            minDist = dist;
-                            minIndex = j;
-                        }
-                    }
-
-                    if (!tmpLabelMap.containsKey(minIndex)) {
-                        tmpLabelMap.put(minIndex, new ArrayList<Integer>());
-                    }
-                    tmpLabelMap.get(minIndex).add(i);
-                }
-
-                // update labels
-                List<Integer> labelCountList = new ArrayList<>();
-                for (int key : labelMap.keySet()) {
-                    labelCountList.add(labelMap.get(key).size());
-                }
-
-                labelMap = new HashMap<>();
-                int count = 0;
-                for (int label : tmpLabelMap.keySet()) {
-                    List<Integer> indexList = tmpLabelMap.get(label);
-                    labelMap.put(label, indexList);
-                    diff += Math.abs(indexList.size() - labelCountList.get(count));
-                    count++;
-                }
-            }
-
+            KernelKMeans kernelKMeans = new KernelKMeans(clusterSize);
+            kernelKMeans.setToleranceCount(tolerance);
             // set labels
-            for (int label : labelMap.keySet()) {
-                List<Integer> indexList = labelMap.get(label);
-                for (int index : indexList) {
-                    vecs[index].setLabel(String.valueOf(label));
-                }
+            int[] assignments = kernelKMeans.cluster(vecs, kernel);
+            for (int i = 0; i < vecs.length; i++) {
+                vecs[i].setLabel(String.valueOf(assignments[i]));
             }
         }
     }
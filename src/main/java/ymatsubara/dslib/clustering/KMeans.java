@@ -0,0 +1,836 @@
+package ymatsubara.dslib.clustering;
+
+import ymatsubara.dslib.common.BasicAlgebra;
+import ymatsubara.dslib.neighbor.NeighborHeap;
+import ymatsubara.dslib.neighbor.SpatialIndex;
+import ymatsubara.dslib.statistics.Kernel;
+import ymatsubara.dslib.structure.FeatureVector;
+import ymatsubara.dslib.util.ParallelUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+
+public class KMeans {
+    public static final String UNIFORM_SEEDING = "Uniform";
+    public static final String KMEANS_PLUS_PLUS_SEEDING = "k-means++";
+    public static final String KMEANS_PARALLEL_SEEDING = "k-means||";
+    public static final String LLOYD = "Lloyd";
+    public static final String HAMERLY = "Hamerly";
+    public static final String ELKAN = "Elkan";
+    public static final String AUTO = "Auto";
+    public static final double DEFAULT_TOLERANCE = 1e-4d;
+    public static final int DEFAULT_MAX_ITERATION_SIZE = 300;
+    // Elkan keeps n x k lower bounds, which pays off for many clusters
+    public static final int ELKAN_MIN_CLUSTER_SIZE = 32;
+    public static final int KMEANS_PARALLEL_ROUND_SIZE = 5;
+    public static final int RANGE_TASK_SIZE = 4096;
+    private static final int LLOYD_STEP = 0;
+    private static final int HAMERLY_INIT_STEP = 1;
+    private static final int HAMERLY_STEP = 2;
+    private static final int ELKAN_INIT_STEP = 3;
+    private static final int ELKAN_STEP = 4;
+    private static final int SEEDING_DISTANCE_STEP = 0;
+    private static final int SEEDING_SAMPLING_STEP = 1;
+    private static final int SEEDING_WEIGHTING_STEP = 2;
+    private int clusterSize, maxIterationSize, iterationSize;
+    private double tolerance;
+    private String seeding, algorithm, indexType;
+    private long seed, lastSeed, distanceCount;
+    private double inertia;
+    private boolean seeded;
+    private double[][] centers;
+    private int[] assignments;
+    // state of a run read by the range tasks of a step, where every task only writes the entries of its own vectors
+    private double[][] arrays, centerDists, elkanLowerBounds;
+    private double[] squaredNorms, centerSquaredNorms, movements, halfGaps, upperBounds, lowerBounds;
+    private double secondMovement;
+    private int farthestIndex;
+    private SpatialIndex centerIndex;
+
+    public KMeans(int clusterSize) {
+        this.clusterSize = clusterSize;
+        this.tolerance = DEFAULT_TOLERANCE;
+        this.maxIterationSize = DEFAULT_MAX_ITERATION_SIZE;
+        this.seeding = KMEANS_PLUS_PLUS_SEEDING;
+        this.algorithm = AUTO;
+        this.seeded = false;
+    }
+
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public void setMaxIterationSize(int maxIterationSize) {
+        this.maxIterationSize = maxIterationSize;
+    }
+
+    public void setSeeding(String seeding) {
+        this.seeding = seeding;
+    }
+
+    public void setAlgorithm(String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    // spatial index type searching the nearest center in Lloyd's algorithm, or null for brute force
+    public void setIndexType(String indexType) {
+        this.indexType = indexType;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+        this.seeded = true;
+    }
+
+    public int getClusterSize() {
+        return this.clusterSize;
+    }
+
+    public double[][] getCenters() {
+        return this.centers;
+    }
+
+    public int[] getAssignments() {
+        return this.assignments;
+    }
+
+    public int getIterationSize() {
+        return this.iterationSize;
+    }
+
+    // number of point-center distances evaluated in the last run
+    public long getDistanceCount() {
+        return this.distanceCount;
+    }
+
+    // within-cluster sum of squared distances of the last run
+    public double getInertia() {
+        return this.inertia;
+    }
+
+    public KMeans copy() {
+        KMeans kMeans = new KMeans(this.clusterSize);
+        kMeans.tolerance = this.tolerance;
+        kMeans.maxIterationSize = this.maxIterationSize;
+        kMeans.seeding = this.seeding;
+        kMeans.algorithm = this.algorithm;
+        kMeans.indexType = this.indexType;
+        kMeans.seed = this.seed;
+        kMeans.seeded = this.seeded;
+        return kMeans;
+    }
+
+    public KMeansModel fit(FeatureVector[] vecs) {
+        cluster(vecs);
+        return new KMeansModel(this.centers, this.assignments, this.inertia, this.lastSeed);
+    }
+
+    // runs restartSize independent runs seeded with seed, seed + 1, ... concurrently and returns the one with the least inertia,
+    // where seed is drawn at random if not set
+    public KMeansModel fit(final FeatureVector[] vecs, int restartSize, int threadSize) {
+        long seed = this.seeded ? this.seed : new Random().nextLong();
+        List<Callable<KMeansModel>> taskList = new ArrayList<>();
+        for (int r = 0; r < restartSize; r++) {
+            final KMeans kMeans = copy();
+            kMeans.setSeed(seed + (long) r);
+            taskList.add(new Callable<KMeansModel>() {
+                @Override
+                public KMeansModel call() {
+                    return kMeans.fit(vecs);
+                }
+            });
+        }
+
+        KMeansModel bestModel = null;
+        List<Integer> failedRestartList = new ArrayList<>();
+        Throwable cause = null;
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, Math.min(threadSize, taskList.size())));
+        try {
+            // ties are broken by the order of the seeds, so the result does not depend on the scheduling
+            List<Future<KMeansModel>> futureList = executorService.invokeAll(taskList);
+            for (int r = 0; r < futureList.size(); r++) {
+                try {
+                    KMeansModel model = futureList.get(r).get();
+                    if (bestModel == null || model.getInertia() < bestModel.getInertia()) {
+                        bestModel = model;
+                    }
+                } catch (ExecutionException e) {
+                    failedRestartList.add(r);
+                    if (cause == null) {
+                        cause = e.getCause();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted @ fit(FeatureVector[], int, int)", e);
+        } finally {
+            executorService.shutdown();
+        }
+
+        if (!failedRestartList.isEmpty()) {
+            throw new IllegalStateException("Restarts " + failedRestartList + " of " + restartSize
+                    + " failed @ fit(FeatureVector[], int, int) : " + cause, cause);
+        }
+        return bestModel;
+    }
+
+    public KMeansModel fit(FeatureVector[] vecs, int restartSize) {
+        return fit(vecs, restartSize, ParallelUtil.DEFAULT_THREAD_SIZE);
+    }
+
+    // returns the index of the cluster each vector belongs to
+    public int[] cluster(FeatureVector[] vecs) {
+        double[][] arrays = Kernel.toArrays(vecs);
+        this.lastSeed = this.seeded ? this.seed : new Random().nextLong();
+        Random rand = new Random(this.lastSeed);
+        this.distanceCount = 0L;
+        this.iterationSize = 0;
+        if (this.seeding.equals(UNIFORM_SEEDING)) {
+            this.centers = seedUniformly(arrays, rand);
+        } else if (this.seeding.equals(KMEANS_PARALLEL_SEEDING)) {
+            this.centers = seedKMeansParallel(arrays, rand);
+        } else {
+            if (!this.seeding.equals(KMEANS_PLUS_PLUS_SEEDING)) {
+                System.err.println(this.seeding + " is an invalid seeding, and " + KMEANS_PLUS_PLUS_SEEDING + " is used instead.");
+            }
+            this.centers = seedKMeansPlusPlus(arrays, null, rand);
+        }
+
+        String algorithm = this.algorithm;
+        if (algorithm.equals(AUTO)) {
+            algorithm = (this.clusterSize >= ELKAN_MIN_CLUSTER_SIZE) ? ELKAN : HAMERLY;
+        }
+
+        this.arrays = arrays;
+        this.assignments = new int[arrays.length];
+        if (algorithm.equals(ELKAN)) {
+            runElkan();
+        } else if (algorithm.equals(HAMERLY)) {
+            runHamerly();
+        } else {
+            if (!algorithm.equals(LLOYD)) {
+                System.err.println(algorithm + " is an invalid algorithm, and " + LLOYD + " is used instead.");
+            }
+            runLloyd();
+        }
+
+        this.inertia = 0.0d;
+        for (int i = 0; i < arrays.length; i++) {
+            this.inertia += BasicAlgebra.calcSquaredEuclideanDistance(arrays[i], this.centers[this.assignments[i]]);
+        }
+
+        releaseStepState();
+        return this.assignments;
+    }
+
+    private void releaseStepState() {
+        this.arrays = null;
+        this.squaredNorms = null;
+        this.centerSquaredNorms = null;
+        this.movements = null;
+        this.halfGaps = null;
+        this.upperBounds = null;
+        this.lowerBounds = null;
+        this.centerDists = null;
+        this.elkanLowerBounds = null;
+        this.centerIndex = null;
+    }
+
+    private double calcDistance(double[] arrayX, double[] arrayY) {
+        this.distanceCount++;
+        return BasicAlgebra.calcEuclideanDistance(arrayX, arrayY);
+    }
+
+    // centers uniformly drawn from the bounding box of the vectors
+    private double[][] seedUniformly(double[][] arrays, Random rand) {
+        int dimension = arrays[0].length;
+        double[] minValues = arrays[0].clone();
+        double[] maxValues = arrays[0].clone();
+        for (double[] array : arrays) {
+            for (int j = 0; j < dimension; j++) {
+                minValues[j] = Math.min(minValues[j], array[j]);
+                maxValues[j] = Math.max(maxValues[j], array[j]);
+            }
+        }
+
+        double[][] centers = new double[this.clusterSize][dimension];
+        for (double[] center : centers) {
+            for (int j = 0; j < dimension; j++) {
+                center[j] = (maxValues[j] - minValues[j]) * rand.nextDouble() + minValues[j];
+            }
+        }
+        return centers;
+    }
+
+    // picks a random index with probability proportional to weights[i]
+    private static int sampleIndex(double[] weights, double sum, Random rand) {
+        double threshold = rand.nextDouble() * sum;
+        double cumulativeSum = 0.0d;
+        for (int i = 0; i < weights.length; i++) {
+            cumulativeSum += weights[i];
+            if (cumulativeSum > threshold) {
+                return i;
+            }
+        }
+
+        for (int i = weights.length - 1; i >= 0; i--) {
+            if (weights[i] > 0.0d) {
+                return i;
+            }
+        }
+        return rand.nextInt(weights.length);
+    }
+
+    // D. Arthur and S. Vassilvitskii "k-means++: The Advantages of Careful Seeding"
+    // every vector is counted pointWeights[i] times if pointWeights is not null
+    private double[][] seedKMeansPlusPlus(double[][] arrays, double[] pointWeights, Random rand) {
+        double[][] centers = new double[this.clusterSize][];
+        double[] squaredDists = new double[arrays.length];
+        Arrays.fill(squaredDists, Double.POSITIVE_INFINITY);
+        int index = rand.nextInt(arrays.length);
+        if (pointWeights != null) {
+            double weightSum = 0.0d;
+            for (double pointWeight : pointWeights) {
+                weightSum += pointWeight;
+            }
+            index = sampleIndex(pointWeights, weightSum, rand);
+        }
+
+        centers[0] = arrays[index].clone();
+        updateSquaredDistances(arrays, centers[0], squaredDists);
+        sampleByDistances(arrays, pointWeights, centers, 1, squaredDists, rand);
+        return centers;
+    }
+
+    private void updateSquaredDistances(double[][] arrays, double[] center, double[] squaredDists) {
+        for (int i = 0; i < arrays.length; i++) {
+            double dist = calcDistance(arrays[i], center);
+            squaredDists[i] = Math.min(squaredDists[i], dist * dist);
+        }
+    }
+
+    // D^2 sampling of centers[size..], where squaredDists holds the squared distances to the nearest of centers[0..size-1]
+    private void sampleByDistances(double[][] arrays, double[] pointWeights, double[][] centers, int size,
+                                   double[] squaredDists, Random rand) {
+        double[] weights = new double[arrays.length];
+        for (int c = size; c < centers.length; c++) {
+            double sum = 0.0d;
+            for (int i = 0; i < arrays.length; i++) {
+                weights[i] = (pointWeights == null) ? squaredDists[i] : pointWeights[i] * squaredDists[i];
+                sum += weights[i];
+            }
+
+            // every vector coincides with a center if sum is 0
+            int index = (sum > 0.0d) ? sampleIndex(weights, sum, rand) : rand.nextInt(arrays.length);
+            centers[c] = arrays[index].clone();
+            if (c + 1 < centers.length) {
+                updateSquaredDistances(arrays, centers[c], squaredDists);
+            }
+        }
+    }
+
+    // B. Bahmani et al. "Scalable K-Means++"
+    // the distance, sampling and weighting passes over the vectors run on the fork-join pool
+    private double[][] seedKMeansParallel(double[][] arrays, Random rand) {
+        ParallelSeeding seeding = new ParallelSeeding(arrays, 2.0d * (double) this.clusterSize);
+        int first = rand.nextInt(arrays.length);
+        seeding.candidateIndices[seeding.candidateSize++] = first;
+        seeding.selected[first] = true;
+        for (int round = 0; round <= KMEANS_PARALLEL_ROUND_SIZE; round++) {
+            // distances to the candidates added in the previous round
+            double cost = runSeedingStep(seeding, SEEDING_DISTANCE_STEP).cost;
+            seeding.updatedFrom = seeding.candidateSize;
+            if (round == KMEANS_PARALLEL_ROUND_SIZE || cost == 0.0d) {
+                break;
+            }
+
+            // every vector is sampled independently with a random stream derived from rand and its range
+            seeding.cost = cost;
+            seeding.roundSeed = rand.nextLong();
+            runSeedingStep(seeding, SEEDING_SAMPLING_STEP);
+            for (int i = 0; i < arrays.length; i++) {
+                if (seeding.sampled[i]) {
+                    seeding.sampled[i] = false;
+                    seeding.selected[i] = true;
+                    seeding.candidateIndices[seeding.candidateSize++] = i;
+                }
+            }
+        }
+
+        double[][] candidates = new double[seeding.candidateSize][];
+        for (int c = 0; c < seeding.candidateSize; c++) {
+            candidates[c] = arrays[seeding.candidateIndices[c]];
+        }
+
+        // too few candidates are kept as centers and the rest are drawn by D^2 sampling continued from them
+        if (seeding.candidateSize <= this.clusterSize) {
+            double[][] centers = new double[this.clusterSize][];
+            for (int c = 0; c < seeding.candidateSize; c++) {
+                centers[c] = candidates[c].clone();
+            }
+            sampleByDistances(arrays, null, centers, seeding.candidateSize, seeding.squaredDists, rand);
+            return centers;
+        }
+
+        // weight every candidate by the number of vectors closest to it and recluster them by k-means++
+        seeding.candidates = candidates;
+        return seedKMeansPlusPlus(candidates, runSeedingStep(seeding, SEEDING_WEIGHTING_STEP).candidateWeights, rand);
+    }
+
+    private SeedingSums runSeedingStep(ParallelSeeding seeding, int step) {
+        SeedingSums seedingSums = ParallelUtil.invoke(new SeedingTask(seeding, step, 0, seeding.arrays.length));
+        this.distanceCount += seedingSums.distanceCount;
+        return seedingSums;
+    }
+
+    // moves every center to the mean of its vectors, keeps the centers of empty clusters and returns the movements
+    private double[] updateCenters(PartialSums partialSums) {
+        double[] movements = new double[this.clusterSize];
+        for (int c = 0; c < this.clusterSize; c++) {
+            if (partialSums.counts[c] == 0) {
+                continue;
+            }
+
+            double[] center = partialSums.sums[c];
+            BasicAlgebra.scalarMultiple(1.0d / (double) partialSums.counts[c], center, center);
+            movements[c] = BasicAlgebra.calcEuclideanDistance(center, this.centers[c]);
+            this.centers[c] = center;
+        }
+        return movements;
+    }
+
+    private boolean hasConverged(double[] movements) {
+        double sum = 0.0d;
+        for (double movement : movements) {
+            sum += movement;
+        }
+        return sum <= this.tolerance;
+    }
+
+    // processes every vector in parallel and returns the sums and counts of the vectors per cluster after the step
+    private PartialSums runStep(int step) {
+        PartialSums partialSums = ParallelUtil.invoke(new RangeTask(this, step, 0, this.arrays.length));
+        this.distanceCount += partialSums.distanceCount;
+        return partialSums;
+    }
+
+    // returns the number of distances computed for the i-th vector, where heap is the search state of the calling task
+    private int processVector(int step, int i, NeighborHeap heap) {
+        if (step == LLOYD_STEP) {
+            return assignLloyd(i, heap);
+        } else if (step == HAMERLY_INIT_STEP) {
+            return assignNearestTwo(i);
+        } else if (step == HAMERLY_STEP) {
+            return assignHamerly(i);
+        } else if (step == ELKAN_INIT_STEP) {
+            return initElkan(i);
+        }
+        return assignElkan(i);
+    }
+
+    private void runLloyd() {
+        this.squaredNorms = new double[this.arrays.length];
+        for (int i = 0; i < this.arrays.length; i++) {
+            this.squaredNorms[i] = BasicAlgebra.calcSquaredMagnitude(this.arrays[i]);
+        }
+
+        this.centerSquaredNorms = new double[this.clusterSize];
+        while (this.iterationSize < this.maxIterationSize) {
+            this.iterationSize++;
+            // centers move in every iteration, so the index over them is rebuilt, which costs O(k log k) against n queries
+            if (this.indexType != null) {
+                this.centerIndex = SpatialIndex.build(this.centers, this.indexType, SpatialIndex.EUCLIDEAN_METRIC, SpatialIndex.DEFAULT_LEAF_SIZE);
+            } else {
+                for (int c = 0; c < this.clusterSize; c++) {
+                    this.centerSquaredNorms[c] = BasicAlgebra.calcSquaredMagnitude(this.centers[c]);
+                }
+            }
+
+            if (hasConverged(updateCenters(runStep(LLOYD_STEP)))) {
+                break;
+            }
+        }
+    }
+
+    private int assignLloyd(int i, NeighborHeap heap) {
+        // the index prunes centers, so only the distances actually computed by the search are counted
+        if (this.centerIndex != null) {
+            long offerCount = heap.getOfferCount();
+            this.assignments[i] = this.centerIndex.searchNearestNeighbor(this.arrays[i], heap);
+            return (int) (heap.getOfferCount() - offerCount);
+        }
+
+        // ||x||^2 + ||c||^2 - 2x.c has the same order as the Euclidean distance
+        int minIndex = 0;
+        double minDist = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < this.clusterSize; c++) {
+            double dist = this.squaredNorms[i] + this.centerSquaredNorms[c] - 2.0d * BasicAlgebra.calcInnerProduct(this.centers[c], this.arrays[i]);
+            if (dist < minDist) {
+                minDist = dist;
+                minIndex = c;
+            }
+        }
+
+        this.assignments[i] = minIndex;
+        return this.clusterSize;
+    }
+
+    // half of the distance from every center to its nearest other center
+    private double[] calcHalfCenterGaps(double[][] centerDists) {
+        double[] halfGaps = new double[this.clusterSize];
+        for (int c = 0; c < this.clusterSize; c++) {
+            double minDist = Double.POSITIVE_INFINITY;
+            for (int d = 0; d < this.clusterSize; d++) {
+                if (d != c) {
+                    minDist = Math.min(minDist, centerDists[c][d]);
+                }
+            }
+            halfGaps[c] = minDist / 2.0d;
+        }
+        return halfGaps;
+    }
+
+    private double[][] calcCenterDistances() {
+        double[][] centerDists = new double[this.clusterSize][this.clusterSize];
+        for (int c = 0; c < this.clusterSize; c++) {
+            for (int d = c + 1; d < this.clusterSize; d++) {
+                double dist = BasicAlgebra.calcEuclideanDistance(this.centers[c], this.centers[d]);
+                centerDists[c][d] = dist;
+                centerDists[d][c] = dist;
+            }
+        }
+        return centerDists;
+    }
+
+    // G. Hamerly "Making k-means even faster": an upper bound of the distance to the assigned center
+    // and a lower bound of the distance to the second nearest center per vector
+    private void runHamerly() {
+        this.upperBounds = new double[this.arrays.length];
+        this.lowerBounds = new double[this.arrays.length];
+        PartialSums partialSums = runStep(HAMERLY_INIT_STEP);
+        while (this.iterationSize < this.maxIterationSize) {
+            this.iterationSize++;
+            this.movements = updateCenters(partialSums);
+            if (hasConverged(this.movements)) {
+                break;
+            }
+
+            this.farthestIndex = 0;
+            for (int c = 1; c < this.clusterSize; c++) {
+                if (this.movements[c] > this.movements[this.farthestIndex]) {
+                    this.farthestIndex = c;
+                }
+            }
+
+            this.secondMovement = 0.0d;
+            for (int c = 0; c < this.clusterSize; c++) {
+                if (c != this.farthestIndex) {
+                    this.secondMovement = Math.max(this.secondMovement, this.movements[c]);
+                }
+            }
+
+            this.halfGaps = calcHalfCenterGaps(calcCenterDistances());
+            partialSums = runStep(HAMERLY_STEP);
+        }
+    }
+
+    private int assignHamerly(int i) {
+        int c = this.assignments[i];
+        this.upperBounds[i] += this.movements[c];
+        this.lowerBounds[i] -= (c == this.farthestIndex) ? this.secondMovement : this.movements[this.farthestIndex];
+        double bound = Math.max(this.halfGaps[c], this.lowerBounds[i]);
+        if (this.upperBounds[i] <= bound) {
+            return 0;
+        }
+
+        this.upperBounds[i] = BasicAlgebra.calcEuclideanDistance(this.arrays[i], this.centers[c]);
+        if (this.upperBounds[i] <= bound) {
+            return 1;
+        }
+        return 1 + assignNearestTwo(i);
+    }
+
+    private int assignNearestTwo(int i) {
+        int minIndex = 0;
+        double minDist = Double.POSITIVE_INFINITY;
+        double secondDist = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < this.clusterSize; c++) {
+            double dist = BasicAlgebra.calcEuclideanDistance(this.arrays[i], this.centers[c]);
+            if (dist < minDist) {
+                secondDist = minDist;
+                minDist = dist;
+                minIndex = c;
+            } else if (dist < secondDist) {
+                secondDist = dist;
+            }
+        }
+
+        this.assignments[i] = minIndex;
+        this.upperBounds[i] = minDist;
+        this.lowerBounds[i] = secondDist;
+        return this.clusterSize;
+    }
+
+    // C. Elkan "Using the Triangle Inequality to Accelerate k-Means": a lower bound of the distance to every center per vector
+    private void runElkan() {
+        this.upperBounds = new double[this.arrays.length];
+        this.elkanLowerBounds = new double[this.arrays.length][this.clusterSize];
+        PartialSums partialSums = runStep(ELKAN_INIT_STEP);
+        while (this.iterationSize < this.maxIterationSize) {
+            this.iterationSize++;
+            this.movements = updateCenters(partialSums);
+            if (hasConverged(this.movements)) {
+                break;
+            }
+
+            this.centerDists = calcCenterDistances();
+            this.halfGaps = calcHalfCenterGaps(this.centerDists);
+            partialSums = runStep(ELKAN_STEP);
+        }
+    }
+
+    private int initElkan(int i) {
+        int minIndex = 0;
+        double minDist = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < this.clusterSize; c++) {
+            double dist = BasicAlgebra.calcEuclideanDistance(this.arrays[i], this.centers[c]);
+            this.elkanLowerBounds[i][c] = dist;
+            if (dist < minDist) {
+                minDist = dist;
+                minIndex = c;
+            }
+        }
+
+        this.assignments[i] = minIndex;
+        this.upperBounds[i] = minDist;
+        return this.clusterSize;
+    }
+
+    private int assignElkan(int i) {
+        double[] bounds = this.elkanLowerBounds[i];
+        for (int c = 0; c < this.clusterSize; c++) {
+            bounds[c] = Math.max(bounds[c] - this.movements[c], 0.0d);
+        }
+
+        int assignment = this.assignments[i];
+        double upperBound = this.upperBounds[i] + this.movements[assignment];
+        int distanceCount = 0;
+        if (upperBound > this.halfGaps[assignment]) {
+            boolean tight = false;
+            for (int c = 0; c < this.clusterSize; c++) {
+                if (c == assignment || upperBound <= bounds[c] || upperBound <= this.centerDists[assignment][c] / 2.0d) {
+                    continue;
+                }
+
+                if (!tight) {
+                    upperBound = BasicAlgebra.calcEuclideanDistance(this.arrays[i], this.centers[assignment]);
+                    bounds[assignment] = upperBound;
+                    distanceCount++;
+                    tight = true;
+                    if (upperBound <= bounds[c] || upperBound <= this.centerDists[assignment][c] / 2.0d) {
+                        continue;
+                    }
+                }
+
+                double dist = BasicAlgebra.calcEuclideanDistance(this.arrays[i], this.centers[c]);
+                bounds[c] = dist;
+                distanceCount++;
+                if (dist < upperBound) {
+                    assignment = c;
+                    upperBound = dist;
+                }
+            }
+        }
+
+        this.assignments[i] = assignment;
+        this.upperBounds[i] = upperBound;
+        return distanceCount;
+    }
+
+    private static class PartialSums {
+        private final double[][] sums;
+        private final int[] counts;
+        private long distanceCount;
+
+        PartialSums(int clusterSize, int dimension) {
+            this.sums = new double[clusterSize][dimension];
+            this.counts = new int[clusterSize];
+            this.distanceCount = 0L;
+        }
+
+        void merge(PartialSums partialSums) {
+            for (int c = 0; c < this.sums.length; c++) {
+                BasicAlgebra.axpy(1.0d, partialSums.sums[c], this.sums[c]);
+                this.counts[c] += partialSums.counts[c];
+            }
+            this.distanceCount += partialSums.distanceCount;
+        }
+    }
+
+    // every task handles a range of vectors and its partial sums are reduced into its parent's
+    private static class RangeTask extends RecursiveTask<PartialSums> {
+        private static final long serialVersionUID = 1L;
+        private final KMeans kMeans;
+        private final int step, from, to;
+
+        RangeTask(KMeans kMeans, int step, int from, int to) {
+            this.kMeans = kMeans;
+            this.step = step;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected PartialSums compute() {
+            if (this.to - this.from <= RANGE_TASK_SIZE) {
+                double[][] arrays = this.kMeans.arrays;
+                int[] assignments = this.kMeans.assignments;
+                PartialSums partialSums = new PartialSums(this.kMeans.clusterSize, arrays[0].length);
+                // one heap is shared by the nearest center searches of this task
+                NeighborHeap heap = (this.kMeans.centerIndex != null) ? new NeighborHeap(1) : null;
+                for (int i = this.from; i < this.to; i++) {
+                    partialSums.distanceCount += this.kMeans.processVector(this.step, i, heap);
+                    BasicAlgebra.axpy(1.0d, arrays[i], partialSums.sums[assignments[i]]);
+                    partialSums.counts[assignments[i]]++;
+                }
+                return partialSums;
+            }
+
+            int mid = (this.from + this.to) >>> 1;
+            RangeTask leftTask = new RangeTask(this.kMeans, this.step, this.from, mid);
+            leftTask.fork();
+            PartialSums partialSums = new RangeTask(this.kMeans, this.step, mid, this.to).compute();
+            partialSums.merge(leftTask.join());
+            return partialSums;
+        }
+    }
+
+    // state of k-means|| seeding read by the seeding tasks, where every task only writes the entries of its own vectors
+    private static class ParallelSeeding {
+        private final double[][] arrays;
+        private final double oversamplingFactor;
+        private final int[] candidateIndices;
+        private final boolean[] selected, sampled;
+        private final double[] squaredDists;
+        private double[][] candidates;
+        private int candidateSize, updatedFrom;
+        private double cost;
+        private long roundSeed;
+
+        ParallelSeeding(double[][] arrays, double oversamplingFactor) {
+            this.arrays = arrays;
+            this.oversamplingFactor = oversamplingFactor;
+            this.candidateIndices = new int[arrays.length];
+            this.selected = new boolean[arrays.length];
+            this.sampled = new boolean[arrays.length];
+            this.squaredDists = new double[arrays.length];
+            Arrays.fill(this.squaredDists, Double.POSITIVE_INFINITY);
+            this.candidateSize = 0;
+            this.updatedFrom = 0;
+        }
+    }
+
+    private static class SeedingSums {
+        private double cost;
+        private final double[] candidateWeights;
+        private long distanceCount;
+
+        SeedingSums(int candidateSize) {
+            this.cost = 0.0d;
+            this.candidateWeights = new double[candidateSize];
+            this.distanceCount = 0L;
+        }
+
+        void merge(SeedingSums seedingSums) {
+            this.cost += seedingSums.cost;
+            BasicAlgebra.axpy(1.0d, seedingSums.candidateWeights, this.candidateWeights);
+            this.distanceCount += seedingSums.distanceCount;
+        }
+    }
+
+    private static class SeedingTask extends RecursiveTask<SeedingSums> {
+        private static final long serialVersionUID = 1L;
+        private final ParallelSeeding seeding;
+        private final int step, from, to;
+
+        SeedingTask(ParallelSeeding seeding, int step, int from, int to) {
+            this.seeding = seeding;
+            this.step = step;
+            this.from = from;
+            this.to = to;
+        }
+
+        private void updateDistances(SeedingSums seedingSums) {
+            double[][] arrays = this.seeding.arrays;
+            double[] squaredDists = this.seeding.squaredDists;
+            for (int i = this.from; i < this.to; i++) {
+                for (int c = this.seeding.updatedFrom; c < this.seeding.candidateSize; c++) {
+                    double dist = BasicAlgebra.calcEuclideanDistance(arrays[i], arrays[this.seeding.candidateIndices[c]]);
+                    squaredDists[i] = Math.min(squaredDists[i], dist * dist);
+                }
+                seedingSums.cost += squaredDists[i];
+            }
+            seedingSums.distanceCount += (long) (this.to - this.from) * (long) (this.seeding.candidateSize - this.seeding.updatedFrom);
+        }
+
+        private void sample() {
+            // the stream of a range does not depend on the scheduling, so the candidates only depend on the seed
+            Random rand = new Random(this.seeding.roundSeed ^ ((long) this.from * 0x9E3779B97F4A7C15L));
+            double scale = this.seeding.oversamplingFactor / this.seeding.cost;
+            for (int i = this.from; i < this.to; i++) {
+                if (!this.seeding.selected[i] && rand.nextDouble() < scale * this.seeding.squaredDists[i]) {
+                    this.seeding.sampled[i] = true;
+                }
+            }
+        }
+
+        private void weightCandidates(SeedingSums seedingSums) {
+            double[][] arrays = this.seeding.arrays;
+            double[][] candidates = this.seeding.candidates;
+            for (int i = this.from; i < this.to; i++) {
+                int minIndex = 0;
+                double minDist = Double.POSITIVE_INFINITY;
+                for (int c = 0; c < candidates.length; c++) {
+                    double dist = BasicAlgebra.calcEuclideanDistance(arrays[i], candidates[c]);
+                    if (dist < minDist) {
+                        minDist = dist;
+                        minIndex = c;
+                    }
+                }
+                seedingSums.candidateWeights[minIndex] += 1.0d;
+            }
+            seedingSums.distanceCount += (long) (this.to - this.from) * (long) candidates.length;
+        }
+
+        @Override
+        protected SeedingSums compute() {
+            if (this.to - this.from <= RANGE_TASK_SIZE) {
+                SeedingSums seedingSums = new SeedingSums((this.step == SEEDING_WEIGHTING_STEP) ? this.seeding.candidates.length : 0);
+                if (this.step == SEEDING_DISTANCE_STEP) {
+                    updateDistances(seedingSums);
+                } else if (this.step == SEEDING_SAMPLING_STEP) {
+                    sample();
+                } else {
+                    weightCandidates(seedingSums);
+                }
+                return seedingSums;
+            }
+
+            int mid = (this.from + this.to) >>> 1;
+            SeedingTask leftTask = new SeedingTask(this.seeding, this.step, this.from, mid);
+            leftTask.fork();
+            SeedingSums seedingSums = new SeedingTask(this.seeding, this.step, mid, this.to).compute();
+            seedingSums.merge(leftTask.join());
+            return seedingSums;
+        }
+    }
+}
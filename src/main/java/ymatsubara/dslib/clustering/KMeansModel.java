@@ -0,0 +1,72 @@
+package ymatsubara.dslib.clustering;
+
+import ymatsubara.dslib.common.BasicAlgebra;
+import ymatsubara.dslib.structure.FeatureVector;
+
+// result of a k-means run, which leaves the labels of the clustered vectors untouched
+public class KMeansModel {
+    private final double[][] centers;
+    private final int[] assignments;
+    private final double inertia;
+    private final long seed;
+
+    public KMeansModel(double[][] centers, int[] assignments, double inertia, long seed) {
+        this.centers = centers;
+        this.assignments = assignments;
+        this.inertia = inertia;
+        this.seed = seed;
+    }
+
+    public int getClusterSize() {
+        return this.centers.length;
+    }
+
+    public double[][] getCenters() {
+        return this.centers;
+    }
+
+    // index of the cluster each clustered vector belongs to
+    public int[] getAssignments() {
+        return this.assignments;
+    }
+
+    // within-cluster sum of squared distances
+    public double getInertia() {
+        return this.inertia;
+    }
+
+    // seed of the run which produced the model
+    public long getSeed() {
+        return this.seed;
+    }
+
+    public int predict(FeatureVector vec) {
+        double[] array = vec.getAllValues();
+        int minIndex = 0;
+        double minDist = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < this.centers.length; c++) {
+            double dist = BasicAlgebra.calcSquaredEuclideanDistance(array, this.centers[c]);
+            if (dist < minDist) {
+                minDist = dist;
+                minIndex = c;
+            }
+        }
+        return minIndex;
+    }
+
+    public int[] predict(FeatureVector[] vecs) {
+        int[] assignments = new int[vecs.length];
+        for (int i = 0; i < vecs.length; i++) {
+            assignments[i] = predict(vecs[i]);
+        }
+        return assignments;
+    }
+
+    // sets the index of the nearest cluster as the label of every vector
+    public void setLabels(FeatureVector[] vecs) {
+        int[] assignments = predict(vecs);
+        for (int i = 0; i < vecs.length; i++) {
+            vecs[i].setLabel(String.valueOf(assignments[i]));
+        }
+    }
+}
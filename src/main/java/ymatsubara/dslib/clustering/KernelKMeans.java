@@ -0,0 +1,281 @@
+package ymatsubara.dslib.clustering;
+
+import ymatsubara.dslib.statistics.Kernel;
+import ymatsubara.dslib.statistics.KernelCache;
+import ymatsubara.dslib.structure.FeatureVector;
+import ymatsubara.dslib.structure.SymmetricMatrix;
+import ymatsubara.dslib.util.ParallelUtil;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.RecursiveAction;
+
+// ||phi(x) - m_c||^2 = K(x, x) - 2 * rowSums[x][c] / |c| + selfSums[c] / |c|^2,
+// where rowSums[x][c] = sum of K(x, b) over b in c and selfSums[c] = sum of K(a, b) over a, b in c.
+// rowSums are updated only with the rows of the vectors which moved, and selfSums are derived from them.
+// Rows are fetched by the calling thread, since the LRU map of a kernel cache is not thread-safe,
+// ROW_BLOCK_SIZE at a time, and the row tasks apply every block to their own entries of rowSums
+public class KernelKMeans {
+    public static final int DEFAULT_TOLERANCE_COUNT = 1;
+    public static final int DEFAULT_MAX_ITERATION_SIZE = 300;
+    public static final int ROW_TASK_SIZE = 64;
+    public static final int ROW_BLOCK_SIZE = 16;
+    private static final int ASSIGNMENT_STEP = 0;
+    private static final int UPDATE_STEP = 1;
+    private int clusterSize, toleranceCount, maxIterationSize, iterationSize;
+    private long seed;
+    private boolean seeded;
+    private int[] assignments;
+    private double inertia;
+    private double[] selfSums;
+    private int[] counts;
+    // state of a run read by the row tasks of a step, where every task only writes the entries of its own rows
+    private SymmetricMatrix kernelMatrix;
+    private double[][] rowSums;
+    private int[] newAssignments, movedIndices, prevAssignments;
+    private int movedSize;
+    private double[][] rowBlock;
+    private int[] blockPrevAssignments, blockAssignments;
+    private int blockSize;
+
+    public KernelKMeans(int clusterSize) {
+        this.clusterSize = clusterSize;
+        this.toleranceCount = DEFAULT_TOLERANCE_COUNT;
+        this.maxIterationSize = DEFAULT_MAX_ITERATION_SIZE;
+        this.seeded = false;
+    }
+
+    // stops when no more than toleranceCount vectors change their clusters in an iteration
+    public void setToleranceCount(int toleranceCount) {
+        this.toleranceCount = toleranceCount;
+    }
+
+    public void setMaxIterationSize(int maxIterationSize) {
+        this.maxIterationSize = maxIterationSize;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+        this.seeded = true;
+    }
+
+    public int getClusterSize() {
+        return this.clusterSize;
+    }
+
+    public int[] getAssignments() {
+        return this.assignments;
+    }
+
+    public int getIterationSize() {
+        return this.iterationSize;
+    }
+
+    // sum of the squared distances between every vector and the center of its cluster in the feature space
+    public double getInertia() {
+        return this.inertia;
+    }
+
+    // the kernel matrix is computed once if its packed form fits in cacheBytes, otherwise its rows are cached up to cacheBytes
+    public int[] cluster(FeatureVector[] vecs, Kernel kernel, long cacheBytes) {
+        if (8L * SymmetricMatrix.calcPackedLength(vecs.length) <= cacheBytes) {
+            return cluster(kernel.calcSymmetricKernelMatrix(vecs));
+        }
+        return cluster(new KernelCache(kernel, vecs, cacheBytes));
+    }
+
+    public int[] cluster(FeatureVector[] vecs, Kernel kernel) {
+        return cluster(vecs, kernel, KernelCache.DEFAULT_CACHE_BYTES);
+    }
+
+    // returns the index of the cluster each vector of the kernel matrix belongs to
+    public int[] cluster(SymmetricMatrix kernelMatrix) {
+        int size = kernelMatrix.getRowSize();
+        Random rand = this.seeded ? new Random(this.seed) : new Random();
+        this.kernelMatrix = kernelMatrix;
+        this.iterationSize = 0;
+        this.assignments = seedAssignments(rand);
+        this.rowSums = new double[size][this.clusterSize];
+        this.counts = new int[this.clusterSize];
+        this.newAssignments = new int[size];
+        this.movedIndices = new int[size];
+        this.prevAssignments = new int[size];
+        this.rowBlock = new double[Math.min(ROW_BLOCK_SIZE, size)][size];
+        this.blockPrevAssignments = new int[ROW_BLOCK_SIZE];
+        this.blockAssignments = new int[ROW_BLOCK_SIZE];
+        // every vector joins its cluster from none at first
+        for (int i = 0; i < size; i++) {
+            this.movedIndices[i] = i;
+            this.prevAssignments[i] = -1;
+        }
+
+        this.movedSize = size;
+        updateRowSums();
+        updateSelfSums();
+        while (this.iterationSize < this.maxIterationSize) {
+            this.iterationSize++;
+            runStep(ASSIGNMENT_STEP);
+            this.movedSize = 0;
+            for (int i = 0; i < size; i++) {
+                if (this.newAssignments[i] != this.assignments[i]) {
+                    this.movedIndices[this.movedSize] = i;
+                    this.prevAssignments[this.movedSize] = this.assignments[i];
+                    this.movedSize++;
+                    this.assignments[i] = this.newAssignments[i];
+                }
+            }
+
+            if (this.movedSize > 0) {
+                updateRowSums();
+                updateSelfSums();
+            }
+
+            if (this.movedSize <= this.toleranceCount) {
+                break;
+            }
+        }
+
+        this.inertia = 0.0d;
+        for (int i = 0; i < size; i++) {
+            this.inertia += calcSquaredDistance(i, this.assignments[i]);
+        }
+
+        this.kernelMatrix = null;
+        this.rowSums = null;
+        this.newAssignments = null;
+        this.movedIndices = null;
+        this.prevAssignments = null;
+        this.rowBlock = null;
+        this.blockPrevAssignments = null;
+        this.blockAssignments = null;
+        return this.assignments;
+    }
+
+    // kernel k-means++: seeds are drawn with probability proportional to the squared distance to the nearest seed
+    // in the feature space, and every vector joins the cluster of its nearest seed
+    private int[] seedAssignments(Random rand) {
+        int size = this.kernelMatrix.getRowSize();
+        int[] assignments = new int[size];
+        double[] squaredDists = new double[size];
+        Arrays.fill(squaredDists, Double.POSITIVE_INFINITY);
+        double[] row = new double[size];
+        int index = rand.nextInt(size);
+        for (int c = 0; c < this.clusterSize; c++) {
+            this.kernelMatrix.getRow(index, row);
+            double diagonal = row[index];
+            double sum = 0.0d;
+            for (int i = 0; i < size; i++) {
+                double squaredDist = Math.max(this.kernelMatrix.getDiagonal(i) + diagonal - 2.0d * row[i], 0.0d);
+                if (squaredDist < squaredDists[i]) {
+                    squaredDists[i] = squaredDist;
+                    assignments[i] = c;
+                }
+                sum += squaredDists[i];
+            }
+
+            // every vector coincides with a seed if sum is 0
+            index = rand.nextInt(size);
+            if (sum > 0.0d) {
+                double threshold = rand.nextDouble() * sum;
+                double cumulativeSum = 0.0d;
+                for (int i = 0; i < size; i++) {
+                    cumulativeSum += squaredDists[i];
+                    if (cumulativeSum > threshold) {
+                        index = i;
+                        break;
+                    }
+                }
+            }
+        }
+        return assignments;
+    }
+
+    private void updateSelfSums() {
+        this.selfSums = new double[this.clusterSize];
+        Arrays.fill(this.counts, 0);
+        for (int i = 0; i < this.assignments.length; i++) {
+            this.selfSums[this.assignments[i]] += this.rowSums[i][this.assignments[i]];
+            this.counts[this.assignments[i]]++;
+        }
+    }
+
+    private double calcSquaredDistance(int i, int c) {
+        double count = (double) this.counts[c];
+        return this.kernelMatrix.getDiagonal(i) - 2.0d * this.rowSums[i][c] / count + this.selfSums[c] / (count * count);
+    }
+
+    // moves the rows of the moved vectors from the sums of their previous clusters to the ones of their new clusters,
+    // where a previous cluster of -1 means none, in O(movedSize * n)
+    private void updateRowSums() {
+        for (int start = 0; start < this.movedSize; start += ROW_BLOCK_SIZE) {
+            this.blockSize = Math.min(ROW_BLOCK_SIZE, this.movedSize - start);
+            for (int b = 0; b < this.blockSize; b++) {
+                int j = this.movedIndices[start + b];
+                this.kernelMatrix.getRow(j, this.rowBlock[b]);
+                this.blockPrevAssignments[b] = this.prevAssignments[start + b];
+                this.blockAssignments[b] = this.assignments[j];
+            }
+            runStep(UPDATE_STEP);
+        }
+    }
+
+    private void runStep(int step) {
+        ParallelUtil.invoke(new RowTask(this, step, 0, this.assignments.length));
+    }
+
+    private void processRow(int step, int i) {
+        if (step == ASSIGNMENT_STEP) {
+            int minIndex = this.assignments[i];
+            double minDist = calcSquaredDistance(i, minIndex);
+            for (int c = 0; c < this.clusterSize; c++) {
+                if (this.counts[c] == 0) {
+                    continue;
+                }
+
+                double dist = calcSquaredDistance(i, c);
+                if (dist < minDist) {
+                    minDist = dist;
+                    minIndex = c;
+                }
+            }
+            this.newAssignments[i] = minIndex;
+            return;
+        }
+
+        double[] sums = this.rowSums[i];
+        for (int b = 0; b < this.blockSize; b++) {
+            double value = this.rowBlock[b][i];
+            if (this.blockPrevAssignments[b] >= 0) {
+                sums[this.blockPrevAssignments[b]] -= value;
+            }
+            sums[this.blockAssignments[b]] += value;
+        }
+    }
+
+    private static class RowTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final KernelKMeans kernelKMeans;
+        private final int step, from, to;
+
+        RowTask(KernelKMeans kernelKMeans, int step, int from, int to) {
+            this.kernelKMeans = kernelKMeans;
+            this.step = step;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= ROW_TASK_SIZE) {
+                for (int i = this.from; i < this.to; i++) {
+                    this.kernelKMeans.processRow(this.step, i);
+                }
+                return;
+            }
+
+            int mid = (this.from + this.to) >>> 1;
+            invokeAll(new RowTask(this.kernelKMeans, this.step, this.from, mid),
+                    new RowTask(this.kernelKMeans, this.step, mid, this.to));
+        }
+    }
+}
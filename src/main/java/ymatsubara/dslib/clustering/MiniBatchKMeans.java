@@ -0,0 +1,193 @@
+package ymatsubara.dslib.clustering;
+
+import ymatsubara.dslib.common.BasicAlgebra;
+import ymatsubara.dslib.structure.FeatureVector;
+import ymatsubara.dslib.util.FeatureVectorReader;
+import ymatsubara.dslib.util.ParallelUtil;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+// D. Sculley "Web-Scale K-Means Clustering": every center moves toward each vector assigned to it
+// with the learning rate 1 / (number of vectors assigned to it so far), so only a batch of vectors is held in memory
+public class MiniBatchKMeans {
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+    public static final int DEFAULT_MAX_EPOCH_SIZE = 1;
+    public static final int ASSIGNMENT_TASK_SIZE = 256;
+    private int clusterSize, batchSize, maxEpochSize, epochSize;
+    private double tolerance;
+    private long seed, batchCount;
+    private boolean seeded;
+    private double[][] centers;
+    private long[] counts;
+
+    public MiniBatchKMeans(int clusterSize) {
+        this.clusterSize = clusterSize;
+        this.batchSize = DEFAULT_BATCH_SIZE;
+        this.maxEpochSize = DEFAULT_MAX_EPOCH_SIZE;
+        this.tolerance = KMeans.DEFAULT_TOLERANCE;
+        this.seeded = false;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    // maximum number of passes over the input file
+    public void setMaxEpochSize(int maxEpochSize) {
+        this.maxEpochSize = maxEpochSize;
+    }
+
+    // stops after an epoch in which the centers moved no more than tolerance in total
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+        this.seeded = true;
+    }
+
+    public int getClusterSize() {
+        return this.clusterSize;
+    }
+
+    public double[][] getCenters() {
+        return this.centers;
+    }
+
+    public int getEpochSize() {
+        return this.epochSize;
+    }
+
+    public long getBatchCount() {
+        return this.batchCount;
+    }
+
+    // clusters the vectors of the file in batches, where the first batch is clustered by k-means to seed the centers
+    public double[][] cluster(FeatureVectorReader reader) {
+        FeatureVector[] batch = new FeatureVector[this.batchSize];
+        int[] assignments = new int[this.batchSize];
+        this.centers = null;
+        this.batchCount = 0L;
+        this.epochSize = 0;
+        while (this.epochSize < this.maxEpochSize) {
+            if (this.epochSize > 0) {
+                reader.reset();
+            }
+
+            this.epochSize++;
+            double[][] prevCenters = null;
+            int size;
+            while ((size = reader.readBatch(batch)) > 0) {
+                if (this.centers == null) {
+                    seedCenters(Arrays.copyOf(batch, size));
+                }
+
+                if (prevCenters == null) {
+                    prevCenters = new double[this.clusterSize][];
+                    for (int c = 0; c < this.clusterSize; c++) {
+                        prevCenters[c] = this.centers[c].clone();
+                    }
+                }
+                update(batch, size, assignments);
+            }
+
+            if (prevCenters == null) {
+                System.err.println("No vectors to cluster");
+                break;
+            }
+
+            double movement = 0.0d;
+            for (int c = 0; c < this.clusterSize; c++) {
+                movement += BasicAlgebra.calcEuclideanDistance(prevCenters[c], this.centers[c]);
+            }
+
+            if (movement <= this.tolerance) {
+                break;
+            }
+        }
+
+        reader.close();
+        return this.centers;
+    }
+
+    // updates the centers with the first size vectors of the batch, which seed the centers if none have been seeded yet
+    public void partialFit(FeatureVector[] batch, int size) {
+        if (this.centers == null) {
+            seedCenters(Arrays.copyOf(batch, size));
+        }
+        update(batch, size, new int[size]);
+    }
+
+    // returns the index of the nearest center of every vector
+    public int[] predict(FeatureVector[] vecs) {
+        int[] assignments = new int[vecs.length];
+        ParallelUtil.invoke(new AssignmentTask(this.centers, vecs, assignments, 0, vecs.length));
+        return assignments;
+    }
+
+    private void seedCenters(FeatureVector[] vecs) {
+        KMeans kMeans = new KMeans(this.clusterSize);
+        if (this.seeded) {
+            kMeans.setSeed(this.seed);
+        }
+
+        kMeans.cluster(vecs);
+        this.centers = kMeans.getCenters();
+        this.counts = new long[this.clusterSize];
+    }
+
+    private void update(FeatureVector[] batch, int size, int[] assignments) {
+        // the nearest centers are cached before any center moves
+        ParallelUtil.invoke(new AssignmentTask(this.centers, batch, assignments, 0, size));
+        for (int i = 0; i < size; i++) {
+            int c = assignments[i];
+            this.counts[c]++;
+            double learningRate = 1.0d / (double) this.counts[c];
+            BasicAlgebra.scalarMultiple(1.0d - learningRate, this.centers[c], this.centers[c]);
+            BasicAlgebra.axpy(learningRate, batch[i].getAllValues(), this.centers[c]);
+        }
+        this.batchCount++;
+    }
+
+    private static class AssignmentTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final double[][] centers;
+        private final FeatureVector[] vecs;
+        private final int[] assignments;
+        private final int from, to;
+
+        AssignmentTask(double[][] centers, FeatureVector[] vecs, int[] assignments, int from, int to) {
+            this.centers = centers;
+            this.vecs = vecs;
+            this.assignments = assignments;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= ASSIGNMENT_TASK_SIZE) {
+                for (int i = this.from; i < this.to; i++) {
+                    double[] array = this.vecs[i].getAllValues();
+                    int minIndex = 0;
+                    double minDist = Double.POSITIVE_INFINITY;
+                    for (int c = 0; c < this.centers.length; c++) {
+                        double dist = BasicAlgebra.calcSquaredEuclideanDistance(array, this.centers[c]);
+                        if (dist < minDist) {
+                            minDist = dist;
+                            minIndex = c;
+                        }
+                    }
+                    this.assignments[i] = minIndex;
+                }
+                return;
+            }
+
+            int mid = (this.from + this.to) >>> 1;
+            invokeAll(new AssignmentTask(this.centers, this.vecs, this.assignments, this.from, mid),
+                    new AssignmentTask(this.centers, this.vecs, this.assignments, mid, this.to));
+        }
+    }
+}
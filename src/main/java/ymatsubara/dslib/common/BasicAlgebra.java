@@ -1,54 +1,111 @@
 package ymatsubara.dslib.common;
 
+import ymatsubara.dslib.util.ParallelUtil;
+
 import java.util.List;
+import java.util.concurrent.RecursiveAction;
 
 public class BasicAlgebra {
+    // blocking of matrix products: 4 output rows share every load of matrixY,
+    // a depth x column block of matrixY stays in cache while a panel is swept
+    public static final int ROW_PANEL_SIZE = 64;
+    public static final int DEPTH_BLOCK_SIZE = 256;
+    public static final int COLUMN_BLOCK_SIZE = 512;
+    public static final long PARALLEL_PRODUCT_THRESHOLD = 1L << 20;
+
+    // reductions over arrays are unrolled with 4 independent partial sums so that additions are not serialized
     public static double calcMagnitude(double[] array) {
-        double magnitude = 0.0d;
-        for (double value : array) {
-            magnitude += Math.pow(value, 2.0d);
+        return Math.sqrt(calcSquaredMagnitude(array));
+    }
+
+    public static double calcSquaredMagnitude(double[] array) {
+        double sum0 = 0.0d;
+        double sum1 = 0.0d;
+        double sum2 = 0.0d;
+        double sum3 = 0.0d;
+        int i = 0;
+        for (; i + 3 < array.length; i += 4) {
+            sum0 += array[i] * array[i];
+            sum1 += array[i + 1] * array[i + 1];
+            sum2 += array[i + 2] * array[i + 2];
+            sum3 += array[i + 3] * array[i + 3];
         }
-        return Math.sqrt(magnitude);
+
+        for (; i < array.length; i++) {
+            sum0 += array[i] * array[i];
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
     }
 
     public static double calcMagnitude(List<Double> list) {
         double magnitude = 0.0d;
         for (double value : list) {
-            magnitude += Math.pow(value, 2.0d);
+            magnitude += value * value;
         }
         return Math.sqrt(magnitude);
     }
 
+    // methods taking an output array write the result into it instead of allocating a new one, and out may be one of the inputs
+    public static void scalarMultiple(double scalar, double[] array, double[] out) {
+        for (int i = 0; i < array.length; i++) {
+            out[i] = scalar * array[i];
+        }
+    }
+
     public static double[] scalarMultiple(double scalar, double[] array) {
         double[] arrayX = new double[array.length];
+        scalarMultiple(scalar, array, arrayX);
+        return arrayX;
+    }
+
+    public static void calcVectorSum(double[] arrayX, double[] arrayY, double[] out) {
         for (int i = 0; i < arrayX.length; i++) {
-            arrayX[i] = scalar * array[i];
+            out[i] = arrayX[i] + arrayY[i];
         }
-        return arrayX;
     }
 
     public static double[] calcVectorSum(double[] arrayX, double[] arrayY) {
         double[] array = new double[arrayX.length];
-        for (int i = 0; i < array.length; i++) {
-            array[i] = arrayX[i] + arrayY[i];
-        }
+        calcVectorSum(arrayX, arrayY, array);
         return array;
     }
 
+    public static void calcVectorDiff(double[] arrayX, double[] arrayY, double[] out) {
+        for (int i = 0; i < arrayX.length; i++) {
+            out[i] = arrayX[i] - arrayY[i];
+        }
+    }
+
     public static double[] calcVectorDiff(double[] arrayX, double[] arrayY) {
         double[] array = new double[arrayX.length];
-        for (int i = 0; i < array.length; i++) {
-            array[i] = arrayX[i] - arrayY[i];
-        }
+        calcVectorDiff(arrayX, arrayY, array);
         return array;
     }
 
-    public static double calcInnerProduct(double[] arrayX, double[] arrayY) {
-        double ip = 0.0d;
+    // arrayY += scalar * arrayX
+    public static void axpy(double scalar, double[] arrayX, double[] arrayY) {
         for (int i = 0; i < arrayX.length; i++) {
-            ip += arrayX[i] * arrayY[i];
+            arrayY[i] += scalar * arrayX[i];
         }
-        return ip;
+    }
+
+    public static double calcInnerProduct(double[] arrayX, double[] arrayY) {
+        double sum0 = 0.0d;
+        double sum1 = 0.0d;
+        double sum2 = 0.0d;
+        double sum3 = 0.0d;
+        int i = 0;
+        for (; i + 3 < arrayX.length; i += 4) {
+            sum0 += arrayX[i] * arrayY[i];
+            sum1 += arrayX[i + 1] * arrayY[i + 1];
+            sum2 += arrayX[i + 2] * arrayY[i + 2];
+            sum3 += arrayX[i + 3] * arrayY[i + 3];
+        }
+
+        for (; i < arrayX.length; i++) {
+            sum0 += arrayX[i] * arrayY[i];
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
     }
 
     public static double calcInnerProduct(List<Double> listX, List<Double> listY) {
@@ -67,13 +124,18 @@ public class BasicAlgebra {
         return array;
     }
 
-    public static double[][] transposeMatrix(double[][] matrix) {
-        double[][] matrixT = new double[matrix[0].length][matrix.length];
+    // out must be a different array from matrix
+    public static void transposeMatrix(double[][] matrix, double[][] out) {
         for (int i = 0; i < matrix.length; i++) {
             for (int j = 0; j < matrix[0].length; j++) {
-                matrixT[j][i] = matrix[i][j];
+                out[j][i] = matrix[i][j];
             }
         }
+    }
+
+    public static double[][] transposeMatrix(double[][] matrix) {
+        double[][] matrixT = new double[matrix[0].length][matrix.length];
+        transposeMatrix(matrix, matrixT);
         return matrixT;
     }
 
@@ -112,74 +174,34 @@ public class BasicAlgebra {
     }
 
     public static double calcDeterminant(double[][] matrix) {
-        double det = 0.0d;
         if (matrix.length != matrix[0].length) {
-            return det;
-        }
-
-        if (matrix.length == 2 && matrix[0].length == 2) {
-            det = matrix[0][0] * matrix[1][1] - matrix[0][1] * matrix[1][0];
-            return det;
+            return 0.0d;
         }
-
-        for (int i = 0; i < matrix.length; i++) {
-            double[][] subMatrix = new double[matrix.length - 1][matrix.length - 1];
-            int l = 0;
-            for (int j = 0; j < matrix.length; j++) {
-                if (i != j) {
-                    for (int k = 1; k < matrix.length; k++) {
-                        subMatrix[l][k - 1] = matrix[j][k];
-                    }
-                    l++;
-                }
-            }
-
-            double sign = (i % 2 == 0) ? 1.0d : -1.0d;
-            det += sign * matrix[i][0] * calcDeterminant(subMatrix);
-        }
-        return det;
+        return new LuDecomposition(matrix).calcDeterminant();
     }
 
+    // matrix is not modified, and a zero matrix is returned if matrix is singular
     public static double[][] calcInverseMatrix(double[][] matrix) {
         if (matrix.length != matrix[0].length) {
             return new double[matrix.length][matrix.length];
         }
 
-        double det = calcDeterminant(matrix);
-        if (det == 0.0d) {
+        LuDecomposition lu = new LuDecomposition(matrix);
+        if (lu.isSingular()) {
             return new double[matrix.length][matrix.length];
         }
+        return lu.calcInverseMatrix();
+    }
 
-        // sweep out method
-        double[][] invMatrix = generateIdentityMatrix(matrix.length);
-        double buf = 0.0d;
+    public static void scalarMultiple(double scalar, double[][] matrix, double[][] out) {
         for (int i = 0; i < matrix.length; i++) {
-            buf = 1.0d / matrix[i][i];
-            for (int j = 0; j < matrix.length; j++) {
-                matrix[i][j] *= buf;
-                invMatrix[i][j] *= buf;
-            }
-
-            for (int j = 0; j < matrix.length; j++) {
-                if (i != j) {
-                    buf = matrix[j][i];
-                    for (int k = 0; k < matrix.length; k++) {
-                        matrix[j][k] -= matrix[i][k] * buf;
-                        invMatrix[j][k] -= invMatrix[i][k] * buf;
-                    }
-                }
-            }
+            scalarMultiple(scalar, matrix[i], out[i]);
         }
-        return invMatrix;
     }
 
     public static double[][] scalarMultiple(double scalar, double[][] matrix) {
         double[][] matrixX = new double[matrix.length][matrix[0].length];
-        for (int i = 0; i < matrixX.length; i++) {
-            for (int j = 0; j < matrixX[0].length; j++) {
-                matrixX[i][j] = scalar * matrix[i][j];
-            }
-        }
+        scalarMultiple(scalar, matrix, matrixX);
         return matrixX;
     }
 
@@ -211,43 +233,144 @@ public class BasicAlgebra {
         return matrix;
     }
 
-    public static double[][] calcMatrixProduct(double[][] matrixX, double[][] matrixY) {
-        double[][] matrix = new double[matrixX.length][matrixY[0].length];
+    // out must be a different array from matrixX and matrixY
+    public static void calcMatrixProduct(double[][] matrixX, double[][] matrixY, double[][] out) {
         if (matrixY.length != matrixX[0].length) {
-            return matrix;
+            return;
         }
 
-        for (int i = 0; i < matrix.length; i++) {
-            for (int j = 0; j < matrix[0].length; j++) {
-                matrix[i][j] = 0.0d;
+        for (int i = 0; i < matrixX.length; i++) {
+            double[] array = out[i];
+            for (int j = 0; j < array.length; j++) {
+                array[j] = 0.0d;
             }
         }
 
-        for (int i = 0; i < matrix.length; i++) {
-            for (int j = 0; j < matrix[0].length; j++) {
-                for (int k = 0; k < matrix[0].length; k++) {
-                    matrix[i][j] += matrixX[i][k] * matrixY[k][j];
+        int columnSize = matrixY[0].length;
+        long productSize = (long) matrixX.length * (long) matrixY.length * (long) columnSize;
+        if (productSize < PARALLEL_PRODUCT_THRESHOLD || (matrixX.length <= ROW_PANEL_SIZE && columnSize <= COLUMN_BLOCK_SIZE)) {
+            multiplyPanel(matrixX, matrixY, out, 0, matrixX.length, 0, columnSize);
+            return;
+        }
+        ParallelUtil.invoke(new MatrixProductTask(matrixX, matrixY, out, 0, matrixX.length, 0, columnSize));
+    }
+
+    // out[rowStart..rowEnd-1][columnStart..columnEnd-1] += matrixX[rowStart..rowEnd-1] * matrixY[][columnStart..columnEnd-1]
+    private static void multiplyPanel(double[][] matrixX, double[][] matrixY, double[][] out,
+                                      int rowStart, int rowEnd, int columnStart, int columnEnd) {
+        int depth = matrixY.length;
+        for (int blockStart = columnStart; blockStart < columnEnd; blockStart += COLUMN_BLOCK_SIZE) {
+            int blockEnd = Math.min(blockStart + COLUMN_BLOCK_SIZE, columnEnd);
+            for (int depthStart = 0; depthStart < depth; depthStart += DEPTH_BLOCK_SIZE) {
+                int depthEnd = Math.min(depthStart + DEPTH_BLOCK_SIZE, depth);
+                int i = rowStart;
+                for (; i + 3 < rowEnd; i += 4) {
+                    double[] arrayX0 = matrixX[i];
+                    double[] arrayX1 = matrixX[i + 1];
+                    double[] arrayX2 = matrixX[i + 2];
+                    double[] arrayX3 = matrixX[i + 3];
+                    double[] array0 = out[i];
+                    double[] array1 = out[i + 1];
+                    double[] array2 = out[i + 2];
+                    double[] array3 = out[i + 3];
+                    for (int k = depthStart; k < depthEnd; k++) {
+                        double x0 = arrayX0[k];
+                        double x1 = arrayX1[k];
+                        double x2 = arrayX2[k];
+                        double x3 = arrayX3[k];
+                        double[] arrayY = matrixY[k];
+                        // contiguous in j with one index for every array, which the JIT vectorizes
+                        for (int j = blockStart; j < blockEnd; j++) {
+                            double y = arrayY[j];
+                            array0[j] += x0 * y;
+                            array1[j] += x1 * y;
+                            array2[j] += x2 * y;
+                            array3[j] += x3 * y;
+                        }
+                    }
+                }
+
+                for (; i < rowEnd; i++) {
+                    double[] arrayX = matrixX[i];
+                    double[] array = out[i];
+                    for (int k = depthStart; k < depthEnd; k++) {
+                        double x = arrayX[k];
+                        double[] arrayY = matrixY[k];
+                        for (int j = blockStart; j < blockEnd; j++) {
+                            array[j] += x * arrayY[j];
+                        }
+                    }
                 }
             }
         }
+    }
+
+    public static double[][] calcMatrixProduct(double[][] matrixX, double[][] matrixY) {
+        double[][] matrix = new double[matrixX.length][matrixY[0].length];
+        calcMatrixProduct(matrixX, matrixY, matrix);
         return matrix;
     }
 
+    // out must be a different array from arrayX
+    public static void calcMatrixProduct(double[] arrayX, double[][] matrixY, double[] out) {
+        if (matrixY.length != arrayX.length) {
+            return;
+        }
+
+        for (int j = 0; j < out.length; j++) {
+            out[j] = 0.0d;
+        }
+
+        for (int k = 0; k < arrayX.length; k++) {
+            axpy(arrayX[k], matrixY[k], out);
+        }
+    }
+
     public static double[] calcMatrixProduct(double[] arrayX, double[][] matrixY) {
-        return calcMatrixProduct(new double[][]{arrayX}, matrixY)[0];
+        double[] array = new double[matrixY[0].length];
+        calcMatrixProduct(arrayX, matrixY, array);
+        return array;
     }
 
-    public static double[] calcMatrixProduct(double[][] matrixX, double[] arrayY) {
-        double[][] matrixY = new double[arrayY.length][1];
-        for (int i = 0; i < arrayY.length; i++) {
-            matrixY[i][0] = arrayY[i];
+    // out must be a different array from arrayY
+    public static void calcMatrixProduct(double[][] matrixX, double[] arrayY, double[] out) {
+        if (matrixX[0].length != arrayY.length) {
+            return;
+        }
+
+        // 4 rows at a time so that every element of arrayY is loaded once per 4 rows
+        int i = 0;
+        for (; i + 3 < matrixX.length; i += 4) {
+            double[] arrayX0 = matrixX[i];
+            double[] arrayX1 = matrixX[i + 1];
+            double[] arrayX2 = matrixX[i + 2];
+            double[] arrayX3 = matrixX[i + 3];
+            double sum0 = 0.0d;
+            double sum1 = 0.0d;
+            double sum2 = 0.0d;
+            double sum3 = 0.0d;
+            for (int k = 0; k < arrayY.length; k++) {
+                double y = arrayY[k];
+                sum0 += arrayX0[k] * y;
+                sum1 += arrayX1[k] * y;
+                sum2 += arrayX2[k] * y;
+                sum3 += arrayX3[k] * y;
+            }
+
+            out[i] = sum0;
+            out[i + 1] = sum1;
+            out[i + 2] = sum2;
+            out[i + 3] = sum3;
         }
 
-        double[][] matrix = calcMatrixProduct(matrixX, matrixY);
-        double[] array = new double[arrayY.length];
-        for (int i = 0; i < array.length; i++) {
-            array[i] = matrix[i][0];
+        for (; i < matrixX.length; i++) {
+            out[i] = calcInnerProduct(matrixX[i], arrayY);
         }
+    }
+
+    public static double[] calcMatrixProduct(double[][] matrixX, double[] arrayY) {
+        double[] array = new double[matrixX.length];
+        calcMatrixProduct(matrixX, arrayY, array);
         return array;
     }
 
@@ -264,27 +387,59 @@ public class BasicAlgebra {
     }
 
     public static double calcEuclideanDistance(double[] arrayX, double[] arrayY) {
-        double dist = 0.0d;
-        for (int i = 0; i < arrayX.length; i++) {
-            dist += Math.pow(arrayX[i] - arrayY[i], 2.0d);
+        return Math.sqrt(calcSquaredEuclideanDistance(arrayX, arrayY));
+    }
+
+    public static double calcSquaredEuclideanDistance(double[] arrayX, double[] arrayY) {
+        double sum0 = 0.0d;
+        double sum1 = 0.0d;
+        double sum2 = 0.0d;
+        double sum3 = 0.0d;
+        int i = 0;
+        for (; i + 3 < arrayX.length; i += 4) {
+            double diff0 = arrayX[i] - arrayY[i];
+            double diff1 = arrayX[i + 1] - arrayY[i + 1];
+            double diff2 = arrayX[i + 2] - arrayY[i + 2];
+            double diff3 = arrayX[i + 3] - arrayY[i + 3];
+            sum0 += diff0 * diff0;
+            sum1 += diff1 * diff1;
+            sum2 += diff2 * diff2;
+            sum3 += diff3 * diff3;
         }
-        return Math.sqrt(dist);
+
+        for (; i < arrayX.length; i++) {
+            double diff = arrayX[i] - arrayY[i];
+            sum0 += diff * diff;
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
     }
 
     public static double calcEuclideanDistance(List<Double> listX, List<Double> listY) {
         double dist = 0.0d;
         for (int i = 0; i < listX.size(); i++) {
-            dist += Math.pow(listX.get(i) - listY.get(i), 2.0d);
+            double diff = listX.get(i) - listY.get(i);
+            dist += diff * diff;
         }
         return Math.sqrt(dist);
     }
 
     public static double calcManhattanDistance(double[] arrayX, double[] arrayY) {
-        double dist = 0.0d;
-        for (int i = 0; i < arrayX.length; i++) {
-            dist += Math.abs(arrayX[i] - arrayY[i]);
+        double sum0 = 0.0d;
+        double sum1 = 0.0d;
+        double sum2 = 0.0d;
+        double sum3 = 0.0d;
+        int i = 0;
+        for (; i + 3 < arrayX.length; i += 4) {
+            sum0 += Math.abs(arrayX[i] - arrayY[i]);
+            sum1 += Math.abs(arrayX[i + 1] - arrayY[i + 1]);
+            sum2 += Math.abs(arrayX[i + 2] - arrayY[i + 2]);
+            sum3 += Math.abs(arrayX[i + 3] - arrayY[i + 3]);
         }
-        return dist;
+
+        for (; i < arrayX.length; i++) {
+            sum0 += Math.abs(arrayX[i] - arrayY[i]);
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
     }
 
     public static double calcManhattanDistance(List<Double> listX, List<Double> listY) {
@@ -298,7 +453,8 @@ public class BasicAlgebra {
     public static double calcMahalanobisDistance(double[] arrayX, double[] arrayY, double[] arraySd) {
         double dist = 0.0d;
         for (int i = 0; i < arrayX.length; i++) {
-            dist += Math.pow((arrayX[i] - arrayY[i]) / arraySd[i], 2.0d);
+            double diff = (arrayX[i] - arrayY[i]) / arraySd[i];
+            dist += diff * diff;
         }
         return Math.sqrt(dist);
     }
@@ -306,8 +462,42 @@ public class BasicAlgebra {
     public static double calcMahalanobisDistance(List<Double> listX, List<Double> listY, List<Double> listSd) {
         double sum = 0.0d;
         for (int i = 0; i < listX.size(); i++) {
-            sum += Math.pow((listX.get(i) - listY.get(i)) / listSd.get(i), 2.0d);
+            double diff = (listX.get(i) - listY.get(i)) / listSd.get(i);
+            sum += diff * diff;
         }
         return Math.sqrt(sum);
     }
+
+    private static class MatrixProductTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final double[][] matrixX, matrixY, out;
+        private final int rowFrom, rowTo, columnFrom, columnTo;
+
+        MatrixProductTask(double[][] matrixX, double[][] matrixY, double[][] out, int rowFrom, int rowTo, int columnFrom, int columnTo) {
+            this.matrixX = matrixX;
+            this.matrixY = matrixY;
+            this.out = out;
+            this.rowFrom = rowFrom;
+            this.rowTo = rowTo;
+            this.columnFrom = columnFrom;
+            this.columnTo = columnTo;
+        }
+
+        @Override
+        protected void compute() {
+            // rows are split first, and the columns of a panel are split so that products with few rows are also parallelized;
+            // both are split at multiples of 4 to keep the register blocks full
+            if (this.rowTo - this.rowFrom > ROW_PANEL_SIZE) {
+                int mid = this.rowFrom + (((this.rowTo - this.rowFrom) >>> 1) & ~3);
+                invokeAll(new MatrixProductTask(this.matrixX, this.matrixY, this.out, this.rowFrom, mid, this.columnFrom, this.columnTo),
+                        new MatrixProductTask(this.matrixX, this.matrixY, this.out, mid, this.rowTo, this.columnFrom, this.columnTo));
+            } else if (this.columnTo - this.columnFrom > COLUMN_BLOCK_SIZE) {
+                int mid = this.columnFrom + (((this.columnTo - this.columnFrom) >>> 1) & ~3);
+                invokeAll(new MatrixProductTask(this.matrixX, this.matrixY, this.out, this.rowFrom, this.rowTo, this.columnFrom, mid),
+                        new MatrixProductTask(this.matrixX, this.matrixY, this.out, this.rowFrom, this.rowTo, mid, this.columnTo));
+            } else {
+                multiplyPanel(this.matrixX, this.matrixY, this.out, this.rowFrom, this.rowTo, this.columnFrom, this.columnTo);
+            }
+        }
+    }
 }
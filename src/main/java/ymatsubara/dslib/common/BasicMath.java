@@ -10,6 +10,21 @@ public class BasicMath {
         return (value > 0.0d) ? 1 : -1;
     }
 
+    // exponentiation by squaring for integer exponents
+    public static double pow(double base, int exponent) {
+        long n = Math.abs((long) exponent);
+        double result = 1.0d;
+        double value = base;
+        while (n > 0L) {
+            if ((n & 1L) == 1L) {
+                result *= value;
+            }
+            value *= value;
+            n >>= 1;
+        }
+        return (exponent < 0) ? 1.0d / result : result;
+    }
+
     public static double calcAverage(double[] array) {
         double sum = 0.0d;
         for (double value : array) {
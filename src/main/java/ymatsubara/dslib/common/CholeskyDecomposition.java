@@ -0,0 +1,214 @@
+package ymatsubara.dslib.common;
+
+import ymatsubara.dslib.structure.SymmetricMatrix;
+import ymatsubara.dslib.util.ParallelUtil;
+
+import java.util.concurrent.RecursiveAction;
+
+// A = LL^T for a symmetric positive definite matrix such as a kernel matrix, where L is kept as lower rows
+public class CholeskyDecomposition {
+    public static final int PANEL_SIZE = 64;
+    public static final int ROW_TASK_SIZE = 64;
+    private double[][] lower;
+    private boolean positiveDefinite;
+
+    // only the lower triangle of matrix is referred and matrix is not modified
+    public CholeskyDecomposition(double[][] matrix) {
+        this.lower = new double[matrix.length][];
+        for (int i = 0; i < matrix.length; i++) {
+            this.lower[i] = new double[i + 1];
+            System.arraycopy(matrix[i], 0, this.lower[i], 0, i + 1);
+        }
+        decompose();
+    }
+
+    public CholeskyDecomposition(SymmetricMatrix matrix) {
+        int size = matrix.getRowSize();
+        double[] row = new double[size];
+        this.lower = new double[size][];
+        for (int i = 0; i < size; i++) {
+            matrix.getRow(i, row);
+            this.lower[i] = new double[i + 1];
+            System.arraycopy(row, 0, this.lower[i], 0, i + 1);
+        }
+        decompose();
+    }
+
+    // column panels are finished in order, and the rows below a diagonal block only depend on the rows of the block
+    private void decompose() {
+        int size = this.lower.length;
+        this.positiveDefinite = true;
+        for (int panelStart = 0; panelStart < size; panelStart += PANEL_SIZE) {
+            int panelEnd = Math.min(panelStart + PANEL_SIZE, size);
+            if (!calcPanelRows(this.lower, panelStart, panelEnd, panelStart, panelEnd)) {
+                this.positiveDefinite = false;
+                return;
+            }
+
+            long updateSize = (long) (size - panelEnd) * (long) (panelEnd - panelStart) * (long) panelEnd;
+            if (updateSize < BasicAlgebra.PARALLEL_PRODUCT_THRESHOLD) {
+                calcPanelRows(this.lower, panelStart, panelEnd, panelEnd, size);
+            } else {
+                ParallelUtil.invoke(new PanelRowTask(this.lower, panelStart, panelEnd, panelEnd, size));
+            }
+        }
+    }
+
+    // computes L[i][panelStart..panelEnd-1] for rows in [rowStart, rowEnd), and returns false if the matrix is not positive definite
+    private static boolean calcPanelRows(double[][] lower, int panelStart, int panelEnd, int rowStart, int rowEnd) {
+        for (int i = rowStart; i < rowEnd; i++) {
+            double[] rowI = lower[i];
+            int columnEnd = Math.min(panelEnd, i + 1);
+            for (int j = panelStart; j < columnEnd; j++) {
+                double[] rowJ = lower[j];
+                double value = rowI[j];
+                for (int k = 0; k < j; k++) {
+                    value -= rowI[k] * rowJ[k];
+                }
+
+                if (i == j) {
+                    if (value <= 0.0d || Double.isNaN(value)) {
+                        return false;
+                    }
+                    rowI[j] = Math.sqrt(value);
+                } else {
+                    rowI[j] = value / rowJ[j];
+                }
+            }
+        }
+        return true;
+    }
+
+    public boolean isPositiveDefinite() {
+        return this.positiveDefinite;
+    }
+
+    public int getSize() {
+        return this.lower.length;
+    }
+
+    public double[][] getLowerMatrix() {
+        int size = this.lower.length;
+        double[][] matrix = new double[size][size];
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(this.lower[i], 0, matrix[i], 0, i + 1);
+        }
+        return matrix;
+    }
+
+    public double calcDeterminant() {
+        if (!this.positiveDefinite) {
+            return 0.0d;
+        }
+
+        double det = 1.0d;
+        for (int i = 0; i < this.lower.length; i++) {
+            det *= this.lower[i][i] * this.lower[i][i];
+        }
+        return det;
+    }
+
+    public double calcLogDeterminant() {
+        if (!this.positiveDefinite) {
+            return Double.NaN;
+        }
+
+        double logDet = 0.0d;
+        for (int i = 0; i < this.lower.length; i++) {
+            logDet += Math.log(this.lower[i][i]);
+        }
+        return 2.0d * logDet;
+    }
+
+    // solves Ax = array
+    public double[] solve(double[] array) {
+        int size = this.lower.length;
+        double[] x = new double[size];
+        if (!this.positiveDefinite) {
+            System.err.println("Matrix is not positive definite.");
+            return x;
+        }
+
+        // Ly = array
+        for (int i = 0; i < size; i++) {
+            double[] row = this.lower[i];
+            double value = array[i];
+            for (int k = 0; k < i; k++) {
+                value -= row[k] * x[k];
+            }
+            x[i] = value / row[i];
+        }
+
+        // L^T x = y by subtracting every solved element from the rest, which keeps the access to L row-wise
+        for (int i = size - 1; i >= 0; i--) {
+            double[] row = this.lower[i];
+            x[i] /= row[i];
+            double value = x[i];
+            for (int k = 0; k < i; k++) {
+                x[k] -= row[k] * value;
+            }
+        }
+        return x;
+    }
+
+    // solves AX = matrix, working on rows of X so that every access is contiguous
+    public double[][] solve(double[][] matrix) {
+        int size = this.lower.length;
+        double[][] x = new double[size][];
+        if (!this.positiveDefinite) {
+            System.err.println("Matrix is not positive definite.");
+            for (int i = 0; i < size; i++) {
+                x[i] = new double[matrix[0].length];
+            }
+            return x;
+        }
+
+        for (int i = 0; i < size; i++) {
+            double[] row = this.lower[i];
+            x[i] = matrix[i].clone();
+            for (int k = 0; k < i; k++) {
+                BasicAlgebra.axpy(-row[k], x[k], x[i]);
+            }
+            BasicAlgebra.scalarMultiple(1.0d / row[i], x[i], x[i]);
+        }
+
+        for (int i = size - 1; i >= 0; i--) {
+            double[] row = this.lower[i];
+            BasicAlgebra.scalarMultiple(1.0d / row[i], x[i], x[i]);
+            for (int k = 0; k < i; k++) {
+                BasicAlgebra.axpy(-row[k], x[i], x[k]);
+            }
+        }
+        return x;
+    }
+
+    public double[][] calcInverseMatrix() {
+        return solve(BasicAlgebra.generateIdentityMatrix(this.lower.length));
+    }
+
+    private static class PanelRowTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final double[][] lower;
+        private final int panelStart, panelEnd, from, to;
+
+        PanelRowTask(double[][] lower, int panelStart, int panelEnd, int from, int to) {
+            this.lower = lower;
+            this.panelStart = panelStart;
+            this.panelEnd = panelEnd;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= ROW_TASK_SIZE) {
+                calcPanelRows(this.lower, this.panelStart, this.panelEnd, this.from, this.to);
+                return;
+            }
+
+            int mid = (this.from + this.to) >>> 1;
+            invokeAll(new PanelRowTask(this.lower, this.panelStart, this.panelEnd, this.from, mid),
+                    new PanelRowTask(this.lower, this.panelStart, this.panelEnd, mid, this.to));
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package ymatsubara.dslib.common;
+
+import ymatsubara.dslib.util.ParallelUtil;
+
+import java.util.concurrent.RecursiveAction;
+
+// PA = LU with partial pivoting, where L (unit lower) and U are stored in one matrix
+public class LuDecomposition {
+    public static final int PANEL_SIZE = 64;
+    public static final int UPDATE_TASK_ROW_SIZE = 64;
+    private double[][] lu;
+    private int[] pivots;
+    private int pivotSign;
+    private boolean singular;
+
+    // matrix is not modified
+    public LuDecomposition(double[][] matrix) {
+        int size = matrix.length;
+        this.lu = new double[size][];
+        this.pivots = new int[size];
+        for (int i = 0; i < size; i++) {
+            this.lu[i] = matrix[i].clone();
+            this.pivots[i] = i;
+        }
+
+        this.pivotSign = 1;
+        this.singular = false;
+        decompose();
+    }
+
+    // right-looking blocked LU: factorize a panel of columns, then update the trailing matrix with it
+    private void decompose() {
+        int size = this.lu.length;
+        for (int panelStart = 0; panelStart < size; panelStart += PANEL_SIZE) {
+            int panelEnd = Math.min(panelStart + PANEL_SIZE, size);
+            for (int k = panelStart; k < panelEnd; k++) {
+                int pivot = k;
+                double maxValue = Math.abs(this.lu[k][k]);
+                for (int i = k + 1; i < size; i++) {
+                    double value = Math.abs(this.lu[i][k]);
+                    if (value > maxValue) {
+                        maxValue = value;
+                        pivot = i;
+                    }
+                }
+
+                if (pivot != k) {
+                    double[] tmpRow = this.lu[k];
+                    this.lu[k] = this.lu[pivot];
+                    this.lu[pivot] = tmpRow;
+                    int tmp = this.pivots[k];
+                    this.pivots[k] = this.pivots[pivot];
+                    this.pivots[pivot] = tmp;
+                    this.pivotSign = -this.pivotSign;
+                }
+
+                double[] rowK = this.lu[k];
+                if (rowK[k] == 0.0d) {
+                    this.singular = true;
+                    continue;
+                }
+
+                for (int i = k + 1; i < size; i++) {
+                    double[] rowI = this.lu[i];
+                    double factor = rowI[k] / rowK[k];
+                    rowI[k] = factor;
+                    for (int j = k + 1; j < panelEnd; j++) {
+                        rowI[j] -= factor * rowK[j];
+                    }
+                }
+            }
+
+            if (panelEnd == size) {
+                break;
+            }
+
+            // U12 = L11^-1 * A12
+            for (int k = panelStart; k < panelEnd; k++) {
+                for (int i = k + 1; i < panelEnd; i++) {
+                    subtractRow(this.lu[i][k], this.lu[k], this.lu[i], panelEnd, size);
+                }
+            }
+
+            // A22 -= L21 * U12
+            long updateSize = (long) (size - panelEnd) * (long) (size - panelEnd) * (long) (panelEnd - panelStart);
+            if (updateSize < BasicAlgebra.PARALLEL_PRODUCT_THRESHOLD) {
+                updateTrailingRows(this.lu, panelStart, panelEnd, panelEnd, size);
+            } else {
+                ParallelUtil.invoke(new TrailingUpdateTask(this.lu, panelStart, panelEnd, panelEnd, size));
+            }
+        }
+    }
+
+    // rowY[from..to-1] -= scalar * rowX[from..to-1]
+    private static void subtractRow(double scalar, double[] rowX, double[] rowY, int from, int to) {
+        if (scalar == 0.0d) {
+            return;
+        }
+
+        for (int j = from; j < to; j++) {
+            rowY[j] -= scalar * rowX[j];
+        }
+    }
+
+    private static void updateTrailingRows(double[][] lu, int panelStart, int panelEnd, int rowStart, int rowEnd) {
+        int size = lu.length;
+        for (int i = rowStart; i < rowEnd; i++) {
+            double[] rowI = lu[i];
+            for (int k = panelStart; k < panelEnd; k++) {
+                subtractRow(rowI[k], lu[k], rowI, panelEnd, size);
+            }
+        }
+    }
+
+    public boolean isSingular() {
+        return this.singular;
+    }
+
+    public int getSize() {
+        return this.lu.length;
+    }
+
+    // original row index of each row of LU
+    public int[] getPivots() {
+        return this.pivots.clone();
+    }
+
+    public double calcDeterminant() {
+        if (this.singular) {
+            return 0.0d;
+        }
+
+        double det = (double) this.pivotSign;
+        for (int i = 0; i < this.lu.length; i++) {
+            det *= this.lu[i][i];
+        }
+        return det;
+    }
+
+    // log |det(A)|, which does not overflow for large matrices
+    public double calcLogAbsDeterminant() {
+        if (this.singular) {
+            return Double.NEGATIVE_INFINITY;
+        }
+
+        double logDet = 0.0d;
+        for (int i = 0; i < this.lu.length; i++) {
+            logDet += Math.log(Math.abs(this.lu[i][i]));
+        }
+        return logDet;
+    }
+
+    public int getDeterminantSign() {
+        if (this.singular) {
+            return 0;
+        }
+
+        int sign = this.pivotSign;
+        for (int i = 0; i < this.lu.length; i++) {
+            if (this.lu[i][i] < 0.0d) {
+                sign = -sign;
+            }
+        }
+        return sign;
+    }
+
+    // solves Ax = array
+    public double[] solve(double[] array) {
+        int size = this.lu.length;
+        double[] x = new double[size];
+        if (this.singular) {
+            System.err.println("Matrix is singular.");
+            return x;
+        }
+
+        for (int i = 0; i < size; i++) {
+            double[] row = this.lu[i];
+            double value = array[this.pivots[i]];
+            for (int j = 0; j < i; j++) {
+                value -= row[j] * x[j];
+            }
+            x[i] = value;
+        }
+
+        for (int i = size - 1; i >= 0; i--) {
+            double[] row = this.lu[i];
+            double value = x[i];
+            for (int j = i + 1; j < size; j++) {
+                value -= row[j] * x[j];
+            }
+            x[i] = value / row[i];
+        }
+        return x;
+    }
+
+    // solves AX = matrix, working on rows of X so that every access is contiguous
+    public double[][] solve(double[][] matrix) {
+        int size = this.lu.length;
+        double[][] x = new double[size][];
+        if (this.singular) {
+            System.err.println("Matrix is singular.");
+            for (int i = 0; i < size; i++) {
+                x[i] = new double[matrix[0].length];
+            }
+            return x;
+        }
+
+        for (int i = 0; i < size; i++) {
+            x[i] = matrix[this.pivots[i]].clone();
+            for (int j = 0; j < i; j++) {
+                subtractRow(this.lu[i][j], x[j], x[i], 0, x[i].length);
+            }
+        }
+
+        for (int i = size - 1; i >= 0; i--) {
+            double[] row = this.lu[i];
+            for (int j = i + 1; j < size; j++) {
+                subtractRow(row[j], x[j], x[i], 0, x[i].length);
+            }
+            BasicAlgebra.scalarMultiple(1.0d / row[i], x[i], x[i]);
+        }
+        return x;
+    }
+
+    public double[][] calcInverseMatrix() {
+        return solve(BasicAlgebra.generateIdentityMatrix(this.lu.length));
+    }
+
+    private static class TrailingUpdateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final double[][] lu;
+        private final int panelStart, panelEnd, from, to;
+
+        TrailingUpdateTask(double[][] lu, int panelStart, int panelEnd, int from, int to) {
+            this.lu = lu;
+            this.panelStart = panelStart;
+            this.panelEnd = panelEnd;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= UPDATE_TASK_ROW_SIZE) {
+                updateTrailingRows(this.lu, this.panelStart, this.panelEnd, this.from, this.to);
+                return;
+            }
+
+            int mid = (this.from + this.to) >>> 1;
+            invokeAll(new TrailingUpdateTask(this.lu, this.panelStart, this.panelEnd, this.from, mid),
+                    new TrailingUpdateTask(this.lu, this.panelStart, this.panelEnd, mid, this.to));
+        }
+    }
+}
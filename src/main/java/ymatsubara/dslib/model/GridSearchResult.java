@@ -0,0 +1,32 @@
+package ymatsubara.dslib.model;
+
+public class GridSearchResult {
+    public final double regParam, accuracy, tpr, tnr;
+    public final double[] kernelParams;
+    // elapsed time to train and evaluate the model at this grid point
+    public final long trainingTimeMillis;
+
+    public GridSearchResult(double regParam, double[] kernelParams, double tpr, double tnr, long trainingTimeMillis) {
+        this.regParam = regParam;
+        this.kernelParams = new double[kernelParams.length];
+        for (int i = 0; i < kernelParams.length; i++) {
+            this.kernelParams[i] = kernelParams[i];
+        }
+
+        this.tpr = tpr;
+        this.tnr = tnr;
+        this.accuracy = (tpr + tnr) / 2.0d;
+        this.trainingTimeMillis = trainingTimeMillis;
+    }
+
+    // null entries are grid points which failed to be evaluated
+    public static GridSearchResult getBestResult(GridSearchResult[] results) {
+        GridSearchResult bestResult = null;
+        for (GridSearchResult result : results) {
+            if (result != null && (bestResult == null || result.accuracy > bestResult.accuracy)) {
+                bestResult = result;
+            }
+        }
+        return bestResult;
+    }
+}
@@ -2,10 +2,19 @@ package ymatsubara.dslib.model;
 
 import ymatsubara.dslib.structure.FeatureVector;
 import ymatsubara.dslib.structure.Result;
+import ymatsubara.dslib.util.ParallelUtil;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public abstract class Model {
     public static final String TYPE = "Abstract";
@@ -16,6 +25,15 @@ public abstract class Model {
         train(vecList.toArray(new FeatureVector[vecList.size()]));
     }
 
+    // trains on vecs[indices[0]], vecs[indices[1]], ...; subclasses which can read the vectors through the indices override this
+    public void train(FeatureVector[] vecs, int[] indices) {
+        FeatureVector[] trainingVecs = new FeatureVector[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            trainingVecs[i] = vecs[indices[i]];
+        }
+        train(trainingVecs);
+    }
+
     public abstract Result predict(FeatureVector vec);
 
     public Result[] predict(FeatureVector[] vecs) {
@@ -26,6 +44,13 @@ public abstract class Model {
         return results;
     }
 
+    // writes the score of vecs[i] into scores[i]; subclasses may override this with a faster batch implementation
+    public void predictScores(FeatureVector[] vecs, double[] scores) {
+        for (int i = 0; i < vecs.length; i++) {
+            scores[i] = predict(vecs[i]).score;
+        }
+    }
+
     public List<Result> predict(List<FeatureVector> vecList) {
         List<Result> resultList = new ArrayList<>();
         for (FeatureVector vec : vecList) {
@@ -36,18 +61,22 @@ public abstract class Model {
 
     public abstract void reset();
 
+    // an untrained model with the same settings, used to train folds concurrently
+    public abstract Model copy();
+
+    // vecList is not modified, so fixed-size lists such as Arrays.asList(...) are also accepted
     public List<Result> doLeaveOneOutCrossValidation(List<FeatureVector> vecList) {
+        FeatureVector[] vecs = vecList.toArray(new FeatureVector[vecList.size()]);
+        FeatureVector[] trainingVecs = new FeatureVector[Math.max(vecs.length - 1, 0)];
         List<Result> resultList = new ArrayList<>();
-        int size = vecList.size();
-        for (int i = 0; i < size; i++) {
-            FeatureVector testVec = vecList.get(0);
-            vecList.remove(0);
-            train(vecList);
-            resultList.add(predict(testVec));
-            vecList.add(testVec);
+        for (int i = 0; i < vecs.length; i++) {
+            System.arraycopy(vecs, 0, trainingVecs, 0, i);
+            System.arraycopy(vecs, i + 1, trainingVecs, i, vecs.length - i - 1);
+            train(trainingVecs);
+            resultList.add(predict(vecs[i]));
             reset();
         }
-        return  resultList;
+        return resultList;
     }
 
     public Result[] doLeaveOneOutCrossValidation(FeatureVector[] vecs) {
@@ -59,6 +88,171 @@ public abstract class Model {
         return results;
     }
 
+    private static void shuffle(int[] indices, Random rand) {
+        for (int i = indices.length - 1; i > 0; i--) {
+            int j = rand.nextInt(i + 1);
+            int tmp = indices[i];
+            indices[i] = indices[j];
+            indices[j] = tmp;
+        }
+    }
+
+    private static int[][] toFolds(List<List<Integer>> foldLists) {
+        int[][] folds = new int[foldLists.size()][];
+        for (int i = 0; i < folds.length; i++) {
+            List<Integer> foldList = foldLists.get(i);
+            folds[i] = new int[foldList.size()];
+            for (int j = 0; j < folds[i].length; j++) {
+                folds[i][j] = foldList.get(j);
+            }
+            Arrays.sort(folds[i]);
+        }
+        return folds;
+    }
+
+    private static void checkFoldSize(int size, int foldSize) {
+        if (foldSize < 2 || foldSize > size) {
+            throw new IllegalArgumentException("foldSize must be between 2 and the number of vectors " + size + " : " + foldSize);
+        }
+    }
+
+    // complement of a sorted fold, which holds the indices of the training vectors
+    private static int[] excludeFold(int size, int[] fold) {
+        int[] indices = new int[size - fold.length];
+        int count = 0;
+        int foldIndex = 0;
+        for (int i = 0; i < size; i++) {
+            if (foldIndex < fold.length && fold[foldIndex] == i) {
+                foldIndex++;
+            } else {
+                indices[count++] = i;
+            }
+        }
+        return indices;
+    }
+
+    // folds[k] holds the indices of the test vectors in the k-th fold
+    public static int[][] splitKFold(int size, int foldSize, long seed) {
+        checkFoldSize(size, foldSize);
+        int[] indices = new int[size];
+        for (int i = 0; i < size; i++) {
+            indices[i] = i;
+        }
+
+        shuffle(indices, new Random(seed));
+        List<List<Integer>> foldLists = new ArrayList<>();
+        for (int i = 0; i < foldSize; i++) {
+            foldLists.add(new ArrayList<Integer>());
+        }
+
+        for (int i = 0; i < size; i++) {
+            foldLists.get(i % foldSize).add(indices[i]);
+        }
+        return toFolds(foldLists);
+    }
+
+    // every fold has almost the same label distribution as vecs
+    public static int[][] splitStratifiedKFold(FeatureVector[] vecs, int foldSize, long seed) {
+        checkFoldSize(vecs.length, foldSize);
+        Map<String, List<Integer>> labelMap = new HashMap<>();
+        List<String> labelList = new ArrayList<>();
+        for (int i = 0; i < vecs.length; i++) {
+            String label = vecs[i].getLabel();
+            if (!labelMap.containsKey(label)) {
+                labelMap.put(label, new ArrayList<Integer>());
+                labelList.add(label);
+            }
+            labelMap.get(label).add(i);
+        }
+
+        Random rand = new Random(seed);
+        List<List<Integer>> foldLists = new ArrayList<>();
+        for (int i = 0; i < foldSize; i++) {
+            foldLists.add(new ArrayList<Integer>());
+        }
+
+        // continue dealing from the fold where the previous label stopped to balance fold sizes
+        int foldIndex = 0;
+        for (String label : labelList) {
+            List<Integer> indexList = labelMap.get(label);
+            int[] indices = new int[indexList.size()];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = indexList.get(i);
+            }
+
+            shuffle(indices, rand);
+            for (int index : indices) {
+                foldLists.get(foldIndex).add(index);
+                foldIndex = (foldIndex + 1) % foldSize;
+            }
+        }
+        return toFolds(foldLists);
+    }
+
+    // results[i] is the result of vecs[i] predicted by the model trained without its fold,
+    // where every fold model reads vecs through the indices of its training vectors
+    public Result[] doCrossValidation(final FeatureVector[] vecs, int[][] folds, int threadSize) {
+        final Result[] results = new Result[vecs.length];
+        List<Callable<Void>> taskList = new ArrayList<>();
+        for (final int[] fold : folds) {
+            final Model model = copy();
+            taskList.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    model.train(vecs, excludeFold(vecs.length, fold));
+                    for (int index : fold) {
+                        results[index] = model.predict(vecs[index]);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        List<Integer> failedFoldList = new ArrayList<>();
+        Throwable cause = null;
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, Math.min(threadSize, taskList.size())));
+        try {
+            List<Future<Void>> futureList = executorService.invokeAll(taskList);
+            for (int i = 0; i < futureList.size(); i++) {
+                try {
+                    futureList.get(i).get();
+                } catch (ExecutionException e) {
+                    failedFoldList.add(i);
+                    if (cause == null) {
+                        cause = e.getCause();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted @ doCrossValidation(FeatureVector[], int[][], int)", e);
+        } finally {
+            executorService.shutdown();
+        }
+
+        if (!failedFoldList.isEmpty()) {
+            throw new IllegalStateException("Folds " + failedFoldList + " of " + folds.length
+                    + " failed @ doCrossValidation(FeatureVector[], int[][], int) : " + cause, cause);
+        }
+        return results;
+    }
+
+    public Result[] doKFoldCrossValidation(FeatureVector[] vecs, int foldSize, long seed, int threadSize) {
+        return doCrossValidation(vecs, splitKFold(vecs.length, foldSize, seed), threadSize);
+    }
+
+    public Result[] doKFoldCrossValidation(FeatureVector[] vecs, int foldSize, long seed) {
+        return doKFoldCrossValidation(vecs, foldSize, seed, ParallelUtil.DEFAULT_THREAD_SIZE);
+    }
+
+    public Result[] doStratifiedKFoldCrossValidation(FeatureVector[] vecs, int foldSize, long seed, int threadSize) {
+        return doCrossValidation(vecs, splitStratifiedKFold(vecs, foldSize, seed), threadSize);
+    }
+
+    public Result[] doStratifiedKFoldCrossValidation(FeatureVector[] vecs, int foldSize, long seed) {
+        return doStratifiedKFoldCrossValidation(vecs, foldSize, seed, ParallelUtil.DEFAULT_THREAD_SIZE);
+    }
+
     public abstract void inputModel(String modelFilePath);
 
     public abstract void outputModel(String modelFilePath);
@@ -4,15 +4,32 @@ import ymatsubara.dslib.common.BasicAlgebra;
 import ymatsubara.dslib.common.BasicMath;
 import ymatsubara.dslib.optimization.Decomposition;
 import ymatsubara.dslib.statistics.Kernel;
+import ymatsubara.dslib.statistics.KernelCache;
 import ymatsubara.dslib.structure.Result;
 import ymatsubara.dslib.structure.FeatureVector;
+import ymatsubara.dslib.structure.IndexedSymmetricMatrix;
+import ymatsubara.dslib.structure.MappedSymmetricMatrix;
 import ymatsubara.dslib.structure.SymmetricMatrix;
 import ymatsubara.dslib.util.FeatureVectorUtil;
+import ymatsubara.dslib.util.ParallelUtil;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class OneClassSvm extends Model {
     public static final String TYPE = "One-class SVM";
@@ -22,14 +39,24 @@ public class OneClassSvm extends Model {
     public static final String NORMAL_LABEL = "1";
     public static final String OUTLIER_LABEL = "-1";
     public static final double WSS3_TAU = 1.0e-12d;
+    public static final int SHRINKING_INTERVAL = 1000;
+    public static final int BINARY_MAGIC_NUMBER = 0x44534F43;
+    public static final int BINARY_VERSION = 2;
+    public static final long MAX_MAPPED_BYTES = 1L << 30;
+    public static final int QUERY_BLOCK_SIZE = 64;
+    public static final int SUPPORT_VECTOR_BLOCK_SIZE = 256;
     public static final int NORMAL_VALUE = 1;
     public static final int OUTLIER_VALUE = -1;
     private String id, method;
-    private double regParam, tolerance, rho, squaredRadius;
+    private double regParam, tolerance, rho, squaredRadius, constantTerm;
     private Kernel kernel;
-    private double[] alphas, gradients;
+    private double[] alphas, gradients, trainingSquaredNorms, solutionAlphas;
     private SymmetricMatrix kernelMatrix;
     private FeatureVector[] trainingVecs;
+    private static final AtomicLong KERNEL_MATRIX_FILE_COUNT = new AtomicLong(0L);
+    private String kernelMatrixFilePath;
+    private long kernelCacheBytes;
+    private boolean shrinking = true;
 
     public OneClassSvm(String id, double regParam, double tolerance, String method, Kernel kernel) {
         this.id = id;
@@ -55,38 +82,111 @@ public class OneClassSvm extends Model {
         inputModel(modelFilePath);
     }
 
+    // if set, the kernel matrix is built in a memory-mapped file instead of the heap
+    public void setKernelMatrixFilePath(String kernelMatrixFilePath) {
+        this.kernelMatrixFilePath = kernelMatrixFilePath;
+    }
+
+    // if positive, kernel rows are computed lazily and kept in an LRU cache of this size instead of the full matrix
+    public void setKernelCacheBytes(long kernelCacheBytes) {
+        this.kernelCacheBytes = kernelCacheBytes;
+    }
+
+    public void setShrinking(boolean shrinking) {
+        this.shrinking = shrinking;
+    }
+
+    private SymmetricMatrix buildKernelMatrix(FeatureVector[] vecs) {
+        if (this.kernelMatrixFilePath != null) {
+            return this.kernel.calcKernelMatrix(vecs, this.kernelMatrixFilePath);
+        } else if (this.kernelCacheBytes > 0L) {
+            return new KernelCache(this.kernel, vecs, this.kernelCacheBytes);
+        }
+        return this.kernel.calcSymmetricKernelMatrix(vecs);
+    }
+
+    // deletes the file of a kernel matrix built in a memory-mapped file by buildKernelMatrix
+    private static void releaseKernelMatrix(SymmetricMatrix kernelMatrix) {
+        if (kernelMatrix instanceof MappedSymmetricMatrix) {
+            ((MappedSymmetricMatrix) kernelMatrix).delete();
+        }
+    }
+
     // R. Fan et. al. "Working Set Selection Using Second Order Information for Training Support Vector Machines"
-    private void solveQpUsingWss3(int trainingSize, double c) {
-        this.kernelMatrix = new SymmetricMatrix(this.kernel.calcKernelMatrix(this.trainingVecs));
+    // if initAlphas is not null, the solver is warm-started from initAlphas projected onto the feasible region
+    private void solveQpUsingWss3(int trainingSize, double c, double[] initAlphas) {
         // initialize an alpha array (Working Set Selection 3)
         this.alphas = new double[trainingSize];
         int[] labels = new int[trainingSize];
         this.gradients = new double[trainingSize];
         double vl = this.regParam * (double) trainingSize;
-        // refer to 4.1.6 p.11
-        for (int i = 0; i < this.alphas.length; i++) {
+        for (int i = 0; i < labels.length; i++) {
             labels[i] = NORMAL_VALUE;
-            if (i < (int) Math.floor(vl)) {
-                this.alphas[i] = 1.0d;
-            } else if (i < (int) Math.floor(vl) + 1) {
-                this.alphas[i] = vl - Math.floor(vl);
-            } else {
-                this.alphas[i] = 0.0d;
-            }
         }
 
-        if (this.method.equals(TAX_AND_DUIN)) {
+        if (initAlphas != null) {
+            System.arraycopy(initAlphas, 0, this.alphas, 0, trainingSize);
+            Decomposition.projectOntoFeasibleRegion(this.alphas, c, this.method.equals(TAX_AND_DUIN) ? 1.0d : vl);
+        } else {
+            // refer to 4.1.6 p.11
             for (int i = 0; i < this.alphas.length; i++) {
-                this.alphas[i] /= vl;
+                if (i < (int) Math.floor(vl)) {
+                    this.alphas[i] = 1.0d;
+                } else if (i < (int) Math.floor(vl) + 1) {
+                    this.alphas[i] = vl - Math.floor(vl);
+                } else {
+                    this.alphas[i] = 0.0d;
+                }
+            }
+
+            if (this.method.equals(TAX_AND_DUIN)) {
+                for (int i = 0; i < this.alphas.length; i++) {
+                    this.alphas[i] /= vl;
+                }
+            }
+        }
+
+        // G = sum of alphas[i] * K[i] over the nonzero alphas, so only their rows are loaded
+        double[] rowI = new double[trainingSize];
+        double[] rowJ = new double[trainingSize];
+        for (int i = 0; i < trainingSize; i++) {
+            if (this.alphas[i] > 0.0d) {
+                this.kernelMatrix.getRow(i, rowI);
+                BasicAlgebra.axpy(this.alphas[i], rowI, this.gradients);
             }
         }
 
-        for (int i = 0; i < this.gradients.length; i++) {
-            this.gradients[i] = BasicAlgebra.calcInnerProduct(this.kernelMatrix.getRow(i), this.alphas);
+        int[] activeSet = new int[trainingSize];
+        for (int i = 0; i < activeSet.length; i++) {
+            activeSet[i] = i;
         }
 
+        int activeSize = trainingSize;
+        int counter = Math.min(trainingSize, SHRINKING_INTERVAL) + 1;
+        boolean unshrunk = false;
         while (true) {
-            int[] workingSet = Decomposition.workingSetSelection3(c, WSS3_TAU, this.tolerance, labels, this.kernelMatrix, this.alphas, this.gradients);
+            if (this.shrinking && --counter == 0) {
+                counter = Math.min(trainingSize, SHRINKING_INTERVAL);
+                double[] gradientMaxes = Decomposition.calcMaxViolations(c, labels, this.alphas, this.gradients, activeSet, activeSize);
+                if (!unshrunk && gradientMaxes[0] + gradientMaxes[1] <= this.tolerance * 10.0d) {
+                    // close to the optimum, so give the shrunk indices a chance to come back once
+                    unshrunk = true;
+                    Decomposition.reconstructGradients(this.kernelMatrix, labels, this.alphas, this.gradients, activeSet, activeSize);
+                    activeSize = trainingSize;
+                    gradientMaxes = Decomposition.calcMaxViolations(c, labels, this.alphas, this.gradients, activeSet, activeSize);
+                }
+                activeSize = Decomposition.shrinkActiveSet(c, gradientMaxes[0], gradientMaxes[1], labels, this.alphas, this.gradients, activeSet, activeSize);
+            }
+
+            int[] workingSet = Decomposition.workingSetSelection3(c, WSS3_TAU, this.tolerance, labels, this.kernelMatrix, this.alphas, this.gradients, activeSet, activeSize);
+            if (workingSet[1] == -1 && activeSize < trainingSize) {
+                // optimal on the active set, so check the optimality over all the indices
+                Decomposition.reconstructGradients(this.kernelMatrix, labels, this.alphas, this.gradients, activeSet, activeSize);
+                activeSize = trainingSize;
+                counter = 1;
+                workingSet = Decomposition.workingSetSelection3(c, WSS3_TAU, this.tolerance, labels, this.kernelMatrix, this.alphas, this.gradients, activeSet, activeSize);
+            }
+
             int i = workingSet[0];
             int j = workingSet[1];
             if (j == -1) {
@@ -127,17 +227,27 @@ public class OneClassSvm extends Model {
             // update gradients
             double deltaAlphaI = this.alphas[i] - oldAlphaI;
             double deltaAlphaJ = this.alphas[j] - oldAlphaJ;
-            for (int t = 0; t < this.gradients.length; t++) {
-                this.gradients[t] += this.kernelMatrix.get(t, i) * deltaAlphaI + this.kernelMatrix.get(t, j) * deltaAlphaJ;
+            // shrunk indices are not updated, so only the entries of the active set are fetched
+            if (activeSize == trainingSize) {
+                this.kernelMatrix.getRow(i, rowI);
+                this.kernelMatrix.getRow(j, rowJ);
+            } else {
+                this.kernelMatrix.getRowEntries(i, activeSet, activeSize, rowI);
+                this.kernelMatrix.getRowEntries(j, activeSet, activeSize, rowJ);
+            }
+
+            for (int s = 0; s < activeSize; s++) {
+                int t = activeSet[s];
+                this.gradients[t] += rowI[t] * deltaAlphaI + rowJ[t] * deltaAlphaJ;
             }
         }
     }
 
     // B. Scholkopf et. al. "Support Vector Method for Novelty Detection"
-    private void trainScholkopf() {
+    private void trainScholkopf(double[] initAlphas) {
         int trainingSize = this.trainingVecs.length;
         double c = 1.0d;
-        solveQpUsingWss3(trainingSize, c);
+        solveQpUsingWss3(trainingSize, c, initAlphas);
         // calculate rho
         List<Integer> indexList = new ArrayList<>();
         for (int i = 0; i < this.alphas.length; i++) {
@@ -154,10 +264,10 @@ public class OneClassSvm extends Model {
     }
 
     // D. Tax and R. Duin "Support Vector Data Description"
-    private void trainTaxAndDuin() {
+    private void trainTaxAndDuin(double[] initAlphas) {
         int trainingSize = this.trainingVecs.length;
         double c = this.regParam;
-        solveQpUsingWss3(trainingSize, c);
+        solveQpUsingWss3(trainingSize, c, initAlphas);
         // calculate radius
         List<Integer> indexList = new ArrayList<>();
         for (int i = 0; i < this.alphas.length; i++) {
@@ -175,41 +285,109 @@ public class OneClassSvm extends Model {
         }
 
         r2 -= 2.0d * sum;
+        this.constantTerm = calcConstantTerm();
+        r2 += this.constantTerm;
+        this.squaredRadius = r2;
+    }
+
+    // sum_i sum_j alphas[i] * alphas[j] * K(i, j), which does not depend on the vector to be predicted
+    private double calcConstantTerm() {
+        double constantTerm = 0.0d;
+        double[] row = new double[this.alphas.length];
         for (int i = 0; i < this.alphas.length; i++) {
-            for (int j = 0; j < this.alphas.length; j++) {
-                r2 += this.alphas[i] * this.alphas[j] * this.kernelMatrix.get(i, j);
+            if (this.alphas[i] > 0.0d) {
+                this.kernelMatrix.getRow(i, row);
+                constantTerm += this.alphas[i] * BasicAlgebra.calcInnerProduct(row, this.alphas);
             }
         }
-        this.squaredRadius = r2;
+        return constantTerm;
     }
 
-    @Override
-    public void train(FeatureVector[] vecs) {
-        this.trainingVecs = FeatureVectorUtil.getTargetVectors(vecs, NORMAL_LABEL);
+    // keep only the support vectors (alpha > 0) since the others do not contribute to the decision function
+    private void compactToSupportVectors() {
+        int supportVecSize = 0;
+        for (double alpha : this.alphas) {
+            if (alpha > 0.0d) {
+                supportVecSize++;
+            }
+        }
+
+        int[] supportIndices = new int[supportVecSize];
+        int count = 0;
+        for (int i = 0; i < this.alphas.length; i++) {
+            if (this.alphas[i] > 0.0d) {
+                supportIndices[count] = i;
+                count++;
+            }
+        }
+
+        FeatureVector[] supportVecs = new FeatureVector[supportVecSize];
+        double[] supportAlphas = new double[supportVecSize];
+        double[] supportSquaredNorms = new double[supportVecSize];
+        for (int i = 0; i < supportVecSize; i++) {
+            int index = supportIndices[i];
+            supportVecs[i] = this.trainingVecs[index];
+            supportAlphas[i] = this.alphas[index];
+            supportSquaredNorms[i] = this.trainingSquaredNorms[index];
+        }
+
+        this.trainingVecs = supportVecs;
+        this.alphas = supportAlphas;
+        this.trainingSquaredNorms = supportSquaredNorms;
+        this.kernelMatrix = new SymmetricMatrix(0);
+        this.gradients = null;
+    }
+
+    // trains on normal vectors only, reusing their kernel matrix and warm-starting from initAlphas if they are not null
+    private void train(FeatureVector[] normalVecs, SymmetricMatrix normalKernelMatrix, double[] initAlphas) {
+        this.trainingVecs = normalVecs;
+        this.trainingSquaredNorms = Kernel.calcSquaredNorms(normalVecs);
+        this.kernelMatrix = (normalKernelMatrix != null) ? normalKernelMatrix : buildKernelMatrix(normalVecs);
         if (this.method.equals(SCHOLKOPF)) {
-            trainScholkopf();
+            trainScholkopf(initAlphas);
         } else if (this.method.equals(TAX_AND_DUIN)) {
-            trainTaxAndDuin();
+            trainTaxAndDuin(initAlphas);
         } else {
             System.err.println(this.method + " is an invalid Svm type.");
+            return;
+        }
+
+        this.solutionAlphas = this.alphas;
+        SymmetricMatrix kernelMatrix = this.kernelMatrix;
+        compactToSupportVectors();
+        if (normalKernelMatrix == null) {
+            releaseKernelMatrix(kernelMatrix);
         }
     }
 
+    @Override
+    public void train(FeatureVector[] vecs) {
+        train(FeatureVectorUtil.getTargetVectors(vecs, NORMAL_LABEL), null, null);
+    }
+
     @Override
     public void train(List<FeatureVector> vecList) {
         train(vecList.toArray(new FeatureVector[vecList.size()]));
     }
 
+    // only the normal vectors among vecs[indices[0]], vecs[indices[1]], ... are gathered
+    @Override
+    public void train(FeatureVector[] vecs, int[] indices) {
+        List<FeatureVector> normalVecList = new ArrayList<>();
+        for (int index : indices) {
+            if (vecs[index].getLabel().equals(NORMAL_LABEL)) {
+                normalVecList.add(vecs[index]);
+            }
+        }
+        train(normalVecList.toArray(new FeatureVector[normalVecList.size()]), null, null);
+    }
+
     private Result predictScholkopf(FeatureVector vec) {
         double score = 0.0d;
-        if (this.kernel.getParams().length > 1) {
-            for (int i = 0; i < this.alphas.length; i++) {
-                score += this.alphas[i] * this.kernel.kernelFunction(this.trainingVecs[i].getAllValues(), vec.getAllValues());
-            }
-        } else {
-            for (int i = 0; i < this.alphas.length; i++) {
-                score += this.alphas[i] * this.kernel.kernelFunction(this.trainingVecs[i].getAllValues(), vec.getAllValues());
-            }
+        double[] values = vec.getAllValues();
+        double squaredNorm = BasicAlgebra.calcSquaredMagnitude(values);
+        for (int i = 0; i < this.alphas.length; i++) {
+            score += this.alphas[i] * this.kernel.kernelFunction(this.trainingVecs[i].getAllValues(), this.trainingSquaredNorms[i], values, squaredNorm);
         }
 
         score -= this.rho;
@@ -218,19 +396,16 @@ public class OneClassSvm extends Model {
     }
 
     private Result predictTaxAndDuin(FeatureVector vec) {
-        double score = BasicAlgebra.calcInnerProduct(vec.getAllValues(), vec.getAllValues());
+        double[] values = vec.getAllValues();
+        double squaredNorm = BasicAlgebra.calcSquaredMagnitude(values);
+        double score = this.kernel.kernelFunction(values, squaredNorm, values, squaredNorm);
         double sum = 0.0d;
         for (int i = 0; i < this.alphas.length; i++) {
-            sum += this.alphas[i] * this.kernel.kernelFunction(vec.getAllValues(), this.trainingVecs[i].getAllValues());
+            sum += this.alphas[i] * this.kernel.kernelFunction(values, squaredNorm, this.trainingVecs[i].getAllValues(), this.trainingSquaredNorms[i]);
         }
 
         score -= 2.0d * sum;
-        for (int i = 0; i < this.alphas.length; i++) {
-            for (int j = 0; j < this.alphas.length; j++) {
-                score += this.alphas[i] * this.alphas[j] * this.kernelMatrix.get(i, j);
-            }
-        }
-
+        score += this.constantTerm;
         score -= this.squaredRadius;
         String label = score > 0.0d ? OUTLIER_LABEL : NORMAL_LABEL;
         return new Result(vec, score, label);
@@ -241,23 +416,71 @@ public class OneClassSvm extends Model {
         return null;
     }
 
+    private boolean isTrained() {
+        return (this.method.equals(SCHOLKOPF) && !Double.isNaN(this.rho)) || (this.method.equals(TAX_AND_DUIN) && !Double.isNaN(this.squaredRadius));
+    }
+
+    private String calcLabel(double score) {
+        if (this.method.equals(SCHOLKOPF)) {
+            return (BasicMath.sgn(score) == OUTLIER_VALUE) ? OUTLIER_LABEL : NORMAL_LABEL;
+        }
+        return score > 0.0d ? OUTLIER_LABEL : NORMAL_LABEL;
+    }
+
     @Override
     public Result predict(FeatureVector vec) {
-        if (this.method.equals(SCHOLKOPF) && this.rho != Double.NaN) {
+        if (this.method.equals(SCHOLKOPF) && !Double.isNaN(this.rho)) {
             return predictScholkopf(vec);
-        } else if (this.method.equals(TAX_AND_DUIN) && this.squaredRadius != Double.NaN) {
+        } else if (this.method.equals(TAX_AND_DUIN) && !Double.isNaN(this.squaredRadius)) {
             return predictTaxAndDuin(vec);
         }
         return predictWithoutTraining();
     }
 
+    @Override
+    public Result[] predict(FeatureVector[] vecs) {
+        if (!isTrained()) {
+            return super.predict(vecs);
+        }
+
+        double[] scores = new double[vecs.length];
+        predictScores(vecs, scores);
+        Result[] results = new Result[vecs.length];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = new Result(vecs[i], scores[i], calcLabel(scores[i]));
+        }
+        return results;
+    }
+
+    @Override
+    public void predictScores(FeatureVector[] vecs, double[] scores) {
+        predictScores(vecs, scores, true);
+    }
+
+    // evaluates (queries x support vectors) kernel blocks, optionally splitting the queries across fork-join tasks
+    public void predictScores(FeatureVector[] vecs, double[] scores, boolean parallel) {
+        if (!isTrained()) {
+            predictWithoutTraining();
+            return;
+        }
+
+        ScoreTask task = new ScoreTask(this, Kernel.toArrays(vecs), Kernel.calcSquaredNorms(vecs), Kernel.toArrays(this.trainingVecs), scores, 0, vecs.length);
+        if (parallel) {
+            ParallelUtil.invoke(task);
+        } else {
+            task.calcScores(0, vecs.length);
+        }
+    }
+
     @Override
     public void reset() {
         this.alphas = new double[0];
         this.kernelMatrix = new SymmetricMatrix(new double[0][0]);
         this.rho = Double.NaN;
         this.squaredRadius = Double.NaN;
+        this.constantTerm = 0.0d;
         this.trainingVecs = new FeatureVector[0];
+        this.trainingSquaredNorms = new double[0];
     }
 
     public void reset(double regParam, double tolerance, Kernel kernel) {
@@ -272,11 +495,14 @@ public class OneClassSvm extends Model {
     }
 
     public double[] doLeaveOneOutCrossValidationTprTfr(List<FeatureVector> vecList) {
+        return calcTprTnr(doLeaveOneOutCrossValidation(vecList));
+    }
+
+    private static double[] calcTprTnr(List<Result> resultList) {
         int normalSize = 0;
         int outlierSize = 0;
         int tpCount = 0;
         int tnCount = 0;
-        List<Result> resultList = doLeaveOneOutCrossValidation(vecList);
         for (Result result : resultList) {
             if (result.trueLabel.equals(NORMAL_LABEL)) {
                 normalSize++;
@@ -301,64 +527,243 @@ public class OneClassSvm extends Model {
         return doLeaveOneOutCrossValidationTprTfr(Arrays.asList(vecs));
     }
 
-    public void doParamsGridSearch(FeatureVector[] vecs, double[] regParams, double[][] kernelParamMatrix, boolean changeable) {
+    // leave-one-out cross validation computing the kernel matrix of the normal vectors only once
+    @Override
+    public List<Result> doLeaveOneOutCrossValidation(List<FeatureVector> vecList) {
+        FeatureVector[] vecs = vecList.toArray(new FeatureVector[vecList.size()]);
+        FeatureVector[] normalVecs = FeatureVectorUtil.getTargetVectors(vecs, NORMAL_LABEL);
+        SymmetricMatrix normalKernelMatrix = buildKernelMatrix(normalVecs);
+        try {
+            return doLeaveOneOutCrossValidation(vecs, normalVecs, normalKernelMatrix, new SparseAlphas[normalVecs.length + 1], null);
+        } finally {
+            releaseKernelMatrix(normalKernelMatrix);
+        }
+    }
+
+    // leave-one-out cross validation sharing the kernel matrix of the normal vectors among all the folds
+    // foldAlphas[k] warm-starts the fold without the k-th normal vector (foldAlphas[normalSize]: all of them) and is replaced with its solution
+    // the folds run on executorService if it is not null, and sequentially otherwise
+    private List<Result> doLeaveOneOutCrossValidation(final FeatureVector[] vecs, final FeatureVector[] normalVecs,
+                                                      final SymmetricMatrix normalKernelMatrix, final SparseAlphas[] foldAlphas,
+                                                      ExecutorService executorService) {
+        // removing a vector which is not normal does not change the training set
+        OneClassSvm fullSvm = createInstance(this.regParam, this.kernel);
+        SparseAlphas fullInitAlphas = foldAlphas[normalVecs.length];
+        fullSvm.train(normalVecs, normalKernelMatrix, (fullInitAlphas != null) ? fullInitAlphas.toArray(normalVecs.length) : null);
+        final double[] fullAlphas = fullSvm.solutionAlphas;
+        foldAlphas[normalVecs.length] = new SparseAlphas(fullAlphas);
+        final Result[] results = new Result[vecs.length];
+        List<Runnable> taskList = new ArrayList<>();
+        int normalIndex = 0;
+        for (int v = 0; v < vecs.length; v++) {
+            if (!vecs[v].getLabel().equals(NORMAL_LABEL)) {
+                results[v] = fullSvm.predict(vecs[v]);
+                continue;
+            }
+
+            // constraints of SVDD do not depend on the training size, so the solution stays optimal without a vector whose alpha is 0
+            if (this.method.equals(TAX_AND_DUIN) && fullAlphas[normalIndex] == 0.0d) {
+                results[v] = fullSvm.predict(vecs[v]);
+                normalIndex++;
+                continue;
+            }
+
+            final int vecIndex = v;
+            final int foldIndex = normalIndex;
+            taskList.add(new Runnable() {
+                @Override
+                public void run() {
+                    int[] indices = IndexedSymmetricMatrix.excludeIndex(normalVecs.length, foldIndex);
+                    FeatureVector[] foldVecs = new FeatureVector[indices.length];
+                    double[] initAlphas = (foldAlphas[foldIndex] != null) ? foldAlphas[foldIndex].toArray(indices.length) : null;
+                    if (initAlphas == null) {
+                        initAlphas = new double[indices.length];
+                        for (int i = 0; i < indices.length; i++) {
+                            initAlphas[i] = fullAlphas[indices[i]];
+                        }
+                    }
+
+                    for (int i = 0; i < indices.length; i++) {
+                        foldVecs[i] = normalVecs[indices[i]];
+                    }
+
+                    OneClassSvm foldSvm = createInstance(OneClassSvm.this.regParam, OneClassSvm.this.kernel);
+                    foldSvm.train(foldVecs, new IndexedSymmetricMatrix(normalKernelMatrix, indices), initAlphas);
+                    foldAlphas[foldIndex] = new SparseAlphas(foldSvm.solutionAlphas);
+                    results[vecIndex] = foldSvm.predict(vecs[vecIndex]);
+                }
+            });
+            normalIndex++;
+        }
+
+        if (executorService == null) {
+            for (Runnable task : taskList) {
+                task.run();
+            }
+        } else {
+            List<Callable<Object>> callableList = new ArrayList<>();
+            for (Runnable task : taskList) {
+                callableList.add(Executors.callable(task));
+            }
+            try {
+                for (Future<Object> future : executorService.invokeAll(callableList)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted @ doLeaveOneOutCrossValidation(...)", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("A fold failed @ doLeaveOneOutCrossValidation(...) : " + e.getCause(), e.getCause());
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public Model copy() {
+        return createInstance(this.regParam, this.kernel);
+    }
+
+    // a model with the same settings except for the hyperparameters, which can be trained independently of this one
+    private OneClassSvm createInstance(double regParam, Kernel kernel) {
+        OneClassSvm svm = new OneClassSvm(this.id, regParam, this.tolerance, this.method, kernel);
+        svm.kernelCacheBytes = this.kernelCacheBytes;
+        svm.shrinking = this.shrinking;
+        if (this.kernelMatrixFilePath != null) {
+            // instances may train concurrently, so each one maps its own file
+            svm.kernelMatrixFilePath = this.kernelMatrixFilePath + "." + KERNEL_MATRIX_FILE_COUNT.incrementAndGet();
+        }
+        return svm;
+    }
+
+    private static List<Double> listGridValues(double[] range) {
         // array[0]: start, array[1]: end, array[2]: step size
+        List<Double> valueList = new ArrayList<>();
+        for (double value = range[0]; value <= range[1]; value += range[2]) {
+            valueList.add(value);
+        }
+        return valueList;
+    }
+
+    private List<double[]> listKernelParamsGrid(double[][] kernelParamMatrix) {
         // array[x][0]: start, array[x][1]: end, array[x][2]: step size
-        double orgRegParam = this.regParam;
-        double[] params = this.kernel.getParams();
-        double[] orgKernelParams = new double[params.length];
-        for (int i = 0; i < orgKernelParams.length; i++) {
-            orgKernelParams[i] = params[i];
-        }
-
-        double bestAccuracy = -Double.MAX_VALUE;
-        double bestRegParam = Double.NaN;
-        double[] bestKernelParams = new double[kernelParamMatrix.length];
-        for (double c = regParams[0]; c <= regParams[1]; c += regParams[2]) {
-            if (orgKernelParams.length == 1) {
-                for (double a = kernelParamMatrix[0][0]; a <= kernelParamMatrix[0][1]; a += kernelParamMatrix[0][2]) {
-                    this.regParam = c;
-                    this.kernel.setParam(a, 0);
-                    double[] tprTfr = doLeaveOneOutCrossValidationTprTfr(vecs);
-                    double accuracy = BasicMath.calcAverage(tprTfr);
-                    if (accuracy > bestAccuracy) {
-                        bestAccuracy = accuracy;
-                        bestRegParam = c;
-                        bestKernelParams[0] = a;
-                    }
+        int paramSize = Math.min(this.kernel.getParams().length, kernelParamMatrix.length);
+        List<double[]> gridList = new ArrayList<>();
+        gridList.add(new double[0]);
+        for (int i = 0; i < paramSize; i++) {
+            List<double[]> nextGridList = new ArrayList<>();
+            for (double[] params : gridList) {
+                for (double value : listGridValues(kernelParamMatrix[i])) {
+                    double[] nextParams = Arrays.copyOf(params, i + 1);
+                    nextParams[i] = value;
+                    nextGridList.add(nextParams);
                 }
-            } else {
-                for (double a = kernelParamMatrix[0][0]; a <= kernelParamMatrix[0][1]; a += kernelParamMatrix[0][2]) {
-                    for (double b = kernelParamMatrix[1][0]; b <= kernelParamMatrix[1][1]; b += kernelParamMatrix[1][2]) {
-                        this.regParam = c;
-                        this.kernel.setParam(a, 0);
-                        this.kernel.setParam(b, 1);
-                        double[] tprTfr = doLeaveOneOutCrossValidationTprTfr(vecs);
-                        double accuracy = BasicMath.calcAverage(tprTfr);
-                        if (accuracy > bestAccuracy) {
-                            bestAccuracy = accuracy;
-                            bestRegParam = c;
-                            bestKernelParams[0] = a;
-                            bestKernelParams[1] = b;
+            }
+            gridList = nextGridList;
+        }
+        return gridList;
+    }
+
+    // every grid point is evaluated by leave-one-out cross validation on a pool of threadSize threads
+    // one task per kernel params computes the kernel matrix once and sweeps regParams in ascending order with warm starts,
+    // and the threads left over by fewer kernel params than threadSize run the folds of every grid point concurrently
+    public GridSearchResult[] doParamsGridSearch(final FeatureVector[] vecs, double[] regParams, double[][] kernelParamMatrix, int threadSize) {
+        final String kernelType = this.kernel.getType();
+        double[] orgKernelParams = this.kernel.getParams();
+        final List<Double> regParamList = listGridValues(regParams);
+        Collections.sort(regParamList);
+        List<double[]> kernelParamsList = listKernelParamsGrid(kernelParamMatrix);
+        final int foldThreadSize = Math.max(1, threadSize / kernelParamsList.size());
+        final FeatureVector[] normalVecs = FeatureVectorUtil.getTargetVectors(vecs, NORMAL_LABEL);
+        List<Callable<GridSearchResult[]>> taskList = new ArrayList<>();
+        for (double[] gridParams : kernelParamsList) {
+            final double[] kernelParams = Arrays.copyOf(orgKernelParams, orgKernelParams.length);
+            System.arraycopy(gridParams, 0, kernelParams, 0, gridParams.length);
+            final OneClassSvm baseSvm = createInstance(this.regParam, new Kernel(kernelType, kernelParams));
+            taskList.add(new Callable<GridSearchResult[]>() {
+                @Override
+                public GridSearchResult[] call() {
+                    long startTime = System.currentTimeMillis();
+                    SymmetricMatrix normalKernelMatrix = baseSvm.buildKernelMatrix(normalVecs);
+                    long kernelTime = System.currentTimeMillis() - startTime;
+                    // rows of a kernel cache are loaded into its LRU map, which is not thread-safe
+                    ExecutorService foldExecutorService = (foldThreadSize > 1 && !(normalKernelMatrix instanceof KernelCache))
+                            ? Executors.newFixedThreadPool(foldThreadSize) : null;
+                    try {
+                        SparseAlphas[] foldAlphas = new SparseAlphas[normalVecs.length + 1];
+                        GridSearchResult[] results = new GridSearchResult[regParamList.size()];
+                        for (int i = 0; i < results.length; i++) {
+                            startTime = System.currentTimeMillis();
+                            double c = regParamList.get(i);
+                            OneClassSvm svm = baseSvm.createInstance(c, baseSvm.kernel);
+                            double[] tprTfr = calcTprTnr(svm.doLeaveOneOutCrossValidation(vecs, normalVecs, normalKernelMatrix, foldAlphas, foldExecutorService));
+                            long elapsedTime = System.currentTimeMillis() - startTime + ((i == 0) ? kernelTime : 0L);
+                            results[i] = new GridSearchResult(c, kernelParams, tprTfr[0], tprTfr[1], elapsedTime);
+                        }
+                        return results;
+                    } finally {
+                        if (foldExecutorService != null) {
+                            foldExecutorService.shutdown();
                         }
+                        releaseKernelMatrix(normalKernelMatrix);
+                    }
+                }
+            });
+        }
+
+        // results are ordered by regParam and then kernel params
+        GridSearchResult[] results = new GridSearchResult[regParamList.size() * kernelParamsList.size()];
+        // the results of a failed task stay null
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, Math.min(threadSize, taskList.size())));
+        try {
+            List<Future<GridSearchResult[]>> futureList = executorService.invokeAll(taskList);
+            for (int i = 0; i < futureList.size(); i++) {
+                try {
+                    GridSearchResult[] taskResults = futureList.get(i).get();
+                    for (int j = 0; j < taskResults.length; j++) {
+                        results[j * kernelParamsList.size() + i] = taskResults[j];
                     }
+                } catch (ExecutionException e) {
+                    System.err.println("Grid points with kernel params " + Arrays.toString(kernelParamsList.get(i))
+                            + " failed @ doParamsGridSearch(FeatureVector[], double[], double[][], int) : " + e.getCause());
                 }
             }
+        } catch (InterruptedException e) {
+            System.err.println("Exception @ doParamsGridSearch(FeatureVector[], double[], double[][], int) : " + e.toString());
+        } finally {
+            executorService.shutdown();
+        }
+        return results;
+    }
+
+    public void doParamsGridSearch(FeatureVector[] vecs, double[] regParams, double[][] kernelParamMatrix, boolean changeable) {
+        GridSearchResult[] results = doParamsGridSearch(vecs, regParams, kernelParamMatrix, ParallelUtil.DEFAULT_THREAD_SIZE);
+        GridSearchResult bestResult = GridSearchResult.getBestResult(results);
+        if (bestResult == null) {
+            System.err.println("No grid point was evaluated.");
+            return;
         }
 
-        System.out.println("Best accuracy = " + (bestAccuracy * 100.0d));
+        System.out.println("Best accuracy = " + (bestResult.accuracy * 100.0d));
         System.out.println("Kernel type = " + this.kernel.getType());
-        System.out.println("regParam = " + bestRegParam);
-        for (int i = 0; i < bestKernelParams.length; i++) {
-            System.out.println("param" + (i + 1) + " = " + bestKernelParams[i]);
+        System.out.println("regParam = " + bestResult.regParam);
+        for (int i = 0; i < bestResult.kernelParams.length; i++) {
+            System.out.println("param" + (i + 1) + " = " + bestResult.kernelParams[i]);
         }
 
-        this.regParam = (changeable) ? bestRegParam : orgRegParam;
-        this.kernel.setParams((changeable) ? bestKernelParams : orgKernelParams);
+        if (changeable) {
+            this.regParam = bestResult.regParam;
+            this.kernel.setParams(bestResult.kernelParams);
+        }
     }
 
     @Override
     public void inputModel(String modelFilePath) {
+        if (isBinaryModel(modelFilePath)) {
+            inputBinaryModel(modelFilePath);
+            return;
+        }
+
         String errorMsg = "This model is not for One-class SVM.";
         File modelFile = new File(modelFilePath);
         try {
@@ -378,7 +783,7 @@ public class OneClassSvm extends Model {
             this.regParam = Double.parseDouble(br.readLine().split(DELIMITER)[1]);
             this.tolerance = Double.parseDouble(br.readLine().split(DELIMITER)[1]);
             String[] params = br.readLine().split(DELIMITER);
-            double[] array = new double[params.length - 1];
+            double[] array = new double[params.length - 2];
             for (int i = 2; i < params.length; i++) {
                 array[i - 2] = Double.parseDouble(params[i]);
             }
@@ -390,7 +795,8 @@ public class OneClassSvm extends Model {
                 this.squaredRadius = Double.parseDouble(br.readLine().split(DELIMITER)[1]);
             }
 
-            if (!br.readLine().equals("alpha")) {
+            this.constantTerm = Double.parseDouble(br.readLine().split(DELIMITER)[1]);
+            if (!br.readLine().equals("alpha vector")) {
                 System.err.println(errorMsg);
                 return;
             }
@@ -401,20 +807,23 @@ public class OneClassSvm extends Model {
                 this.alphas[i] = Double.parseDouble(params[i]);
             }
 
-            if (!br.readLine().equals("kernel matrix")) {
+            if (!br.readLine().equals("support vectors")) {
                 System.err.println(errorMsg);
                 return;
             }
 
-            double[][] matrix = new double[this.alphas.length][this.alphas.length];
+            this.trainingVecs = new FeatureVector[this.alphas.length];
             for (int i = 0; i < this.alphas.length; i++) {
                 params = br.readLine().split(DELIMITER);
-                for (int j = 0; j < params.length; j++) {
-                    matrix[i][j] = Double.parseDouble(params[j]);
+                FeatureVector vec = new FeatureVector(params[0], params[1], params.length - 2);
+                for (int j = 2; j < params.length; j++) {
+                    vec.replaceValue(Double.parseDouble(params[j]), j - 2);
                 }
+                this.trainingVecs[i] = vec;
             }
 
-            this.kernelMatrix = new SymmetricMatrix(matrix);
+            this.trainingSquaredNorms = Kernel.calcSquaredNorms(this.trainingVecs);
+            this.kernelMatrix = new SymmetricMatrix(0);
             br.close();
         } catch (Exception e) {
             System.err.println("Exception @ inputModel(String) : " + e.toString());
@@ -449,6 +858,8 @@ public class OneClassSvm extends Model {
                 bw.write("squared radius" + DELIMITER + this.squaredRadius);
             }
 
+            bw.newLine();
+            bw.write("constant term" + DELIMITER + this.constantTerm);
             bw.newLine();
             bw.write("alpha vector");
             bw.newLine();
@@ -457,16 +868,308 @@ public class OneClassSvm extends Model {
             }
 
             bw.newLine();
-            bw.write("kernel matrix");
+            bw.write("support vectors");
             bw.newLine();
-            for (int i = 0; i < this.kernelMatrix.getRowSize(); i++) {
-                for (int j = 0; j < this.kernelMatrix.getColumnSize(); j++) {
-                    bw.write((j == 0) ? String.valueOf(this.kernelMatrix.get(i, j)) : "" + DELIMITER + this.kernelMatrix.get(i, j));
+            for (FeatureVector vec : this.trainingVecs) {
+                bw.write(vec.id + DELIMITER + vec.getLabel());
+                for (double value : vec.getAllValues()) {
+                    bw.write(DELIMITER + value);
                 }
+                bw.newLine();
             }
             bw.close();
         } catch (Exception e) {
             System.err.println("Exception @ outputModel(String) : " + e.toString());
         }
     }
+
+    /*
+    Binary model format (big-endian)
+    [int] magic number, [int] version
+    [UTF] id, [UTF] method, [UTF] kernel type
+    [double] regParam, [double] tolerance, [int] kernel param size, [double...] kernel params
+    [double] rho, [double] squared radius, [double] constant term
+    [int] support vector size, [int] dimension, [zero padding to a multiple of 8 bytes]
+    [double...] alphas, [double...] squared norms, [double...] support vectors (row-major)
+    [UTF, UTF...] id and label of every support vector (since version 2)
+     */
+    public static boolean isBinaryModel(String modelFilePath) {
+        try {
+            DataInputStream dis = new DataInputStream(new FileInputStream(modelFilePath));
+            int magicNumber = (dis.available() >= 4) ? dis.readInt() : 0;
+            dis.close();
+            return magicNumber == BINARY_MAGIC_NUMBER;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // the double sections are mapped in windows of at most MAX_MAPPED_BYTES and copied into the arrays used for prediction
+    public void inputBinaryModel(String modelFilePath) {
+        String errorMsg = "This model is not for One-class SVM.";
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(new File(modelFilePath), "r");
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, Math.min(channel.size(), MAX_MAPPED_BYTES));
+            int version = (buffer.getInt() == BINARY_MAGIC_NUMBER) ? buffer.getInt() : -1;
+            if (version < 1 || version > BINARY_VERSION) {
+                System.err.println(errorMsg);
+                return;
+            }
+
+            this.id = readUtf(buffer);
+            this.method = readUtf(buffer);
+            if (!this.method.equals(SCHOLKOPF) && !this.method.equals(TAX_AND_DUIN)) {
+                System.err.println(errorMsg);
+                return;
+            }
+
+            String kernelType = readUtf(buffer);
+            this.regParam = buffer.getDouble();
+            this.tolerance = buffer.getDouble();
+            double[] kernelParams = new double[buffer.getInt()];
+            for (int i = 0; i < kernelParams.length; i++) {
+                kernelParams[i] = buffer.getDouble();
+            }
+
+            this.kernel = new Kernel(kernelType, kernelParams);
+            this.rho = buffer.getDouble();
+            this.squaredRadius = buffer.getDouble();
+            this.constantTerm = buffer.getDouble();
+            int supportVecSize = buffer.getInt();
+            int dimension = buffer.getInt();
+            // bulk copies from the mapped file, no parsing
+            MappedDoubleReader reader = new MappedDoubleReader(channel, (buffer.position() + 7) / 8 * 8);
+            this.alphas = new double[supportVecSize];
+            reader.get(this.alphas);
+            this.trainingSquaredNorms = new double[supportVecSize];
+            reader.get(this.trainingSquaredNorms);
+            this.trainingVecs = new FeatureVector[supportVecSize];
+            double[][] supportArrays = new double[supportVecSize][dimension];
+            for (int i = 0; i < supportVecSize; i++) {
+                reader.get(supportArrays[i]);
+            }
+
+            DataInputStream dis = null;
+            if (version >= 2) {
+                channel.position(reader.getPosition());
+                dis = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            }
+
+            for (int i = 0; i < supportVecSize; i++) {
+                String vecId = (dis != null) ? dis.readUTF() : String.valueOf(i);
+                String label = (dis != null) ? dis.readUTF() : NORMAL_LABEL;
+                this.trainingVecs[i] = new FeatureVector(vecId, label, supportArrays[i]);
+                supportArrays[i] = null;
+            }
+            this.kernelMatrix = new SymmetricMatrix(0);
+        } catch (Exception e) {
+            System.err.println("Exception @ inputBinaryModel(String) : " + e.toString());
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    System.err.println("Exception @ inputBinaryModel(String) : " + e.toString());
+                }
+            }
+        }
+    }
+
+    public void outputBinaryModel(String modelFilePath) {
+        try {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(modelFilePath)));
+            dos.writeInt(BINARY_MAGIC_NUMBER);
+            dos.writeInt(BINARY_VERSION);
+            dos.writeUTF(this.id);
+            dos.writeUTF(this.method);
+            dos.writeUTF(this.kernel.getType());
+            dos.writeDouble(this.regParam);
+            dos.writeDouble(this.tolerance);
+            double[] params = this.kernel.getParams();
+            dos.writeInt(params.length);
+            for (double param : params) {
+                dos.writeDouble(param);
+            }
+
+            dos.writeDouble(this.rho);
+            dos.writeDouble(this.squaredRadius);
+            dos.writeDouble(this.constantTerm);
+            dos.writeInt(this.alphas.length);
+            dos.writeInt((this.trainingVecs.length > 0) ? this.trainingVecs[0].getSize() : 0);
+            while (dos.size() % 8 != 0) {
+                dos.writeByte(0);
+            }
+
+            for (double alpha : this.alphas) {
+                dos.writeDouble(alpha);
+            }
+
+            for (double squaredNorm : this.trainingSquaredNorms) {
+                dos.writeDouble(squaredNorm);
+            }
+
+            for (FeatureVector vec : this.trainingVecs) {
+                for (double value : vec.getAllValues()) {
+                    dos.writeDouble(value);
+                }
+            }
+
+            for (FeatureVector vec : this.trainingVecs) {
+                dos.writeUTF(vec.id);
+                dos.writeUTF(vec.getLabel());
+            }
+            dos.close();
+        } catch (Exception e) {
+            System.err.println("Exception @ outputBinaryModel(String) : " + e.toString());
+        }
+    }
+
+    private static class ScoreTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final OneClassSvm svm;
+        private final double[][] arrays, supportArrays;
+        private final double[] squaredNorms, scores;
+        private final int from, to;
+
+        private ScoreTask(OneClassSvm svm, double[][] arrays, double[] squaredNorms, double[][] supportArrays, double[] scores, int from, int to) {
+            this.svm = svm;
+            this.arrays = arrays;
+            this.squaredNorms = squaredNorms;
+            this.supportArrays = supportArrays;
+            this.scores = scores;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= QUERY_BLOCK_SIZE) {
+                calcScores(this.from, this.to);
+                return;
+            }
+
+            int mid = (this.from + this.to) >>> 1;
+            invokeAll(new ScoreTask(this.svm, this.arrays, this.squaredNorms, this.supportArrays, this.scores, this.from, mid),
+                    new ScoreTask(this.svm, this.arrays, this.squaredNorms, this.supportArrays, this.scores, mid, this.to));
+        }
+
+        private void calcScores(int start, int end) {
+            double[] alphas = this.svm.alphas;
+            double[][] block = new double[Math.min(QUERY_BLOCK_SIZE, end - start)][SUPPORT_VECTOR_BLOCK_SIZE];
+            for (int blockStart = start; blockStart < end; blockStart += QUERY_BLOCK_SIZE) {
+                int blockEnd = Math.min(blockStart + QUERY_BLOCK_SIZE, end);
+                for (int i = blockStart; i < blockEnd; i++) {
+                    this.scores[i] = 0.0d;
+                }
+
+                // each support vector block stays in cache while it is multiplied by the whole query block
+                for (int supportStart = 0; supportStart < alphas.length; supportStart += SUPPORT_VECTOR_BLOCK_SIZE) {
+                    int supportEnd = Math.min(supportStart + SUPPORT_VECTOR_BLOCK_SIZE, alphas.length);
+                    this.svm.kernel.calcKernelBlock(this.arrays, this.squaredNorms, blockStart, blockEnd,
+                            this.supportArrays, this.svm.trainingSquaredNorms, supportStart, supportEnd, block);
+                    for (int i = blockStart; i < blockEnd; i++) {
+                        double[] row = block[i - blockStart];
+                        double sum = 0.0d;
+                        for (int j = supportStart; j < supportEnd; j++) {
+                            sum += alphas[j] * row[j - supportStart];
+                        }
+                        this.scores[i] += sum;
+                    }
+                }
+
+                for (int i = blockStart; i < blockEnd; i++) {
+                    if (this.svm.method.equals(SCHOLKOPF)) {
+                        this.scores[i] -= this.svm.rho;
+                    } else {
+                        double selfValue = this.svm.kernel.kernelFunction(this.arrays[i], this.squaredNorms[i], this.arrays[i], this.squaredNorms[i]);
+                        this.scores[i] = selfValue - 2.0d * this.scores[i] + this.svm.constantTerm - this.svm.squaredRadius;
+                    }
+                }
+            }
+        }
+    }
+
+    // nonzero alphas of a solution, which are much fewer than the training vectors
+    private static class SparseAlphas {
+        private final int[] indices;
+        private final double[] values;
+
+        SparseAlphas(double[] alphas) {
+            int size = 0;
+            for (double alpha : alphas) {
+                if (alpha > 0.0d) {
+                    size++;
+                }
+            }
+
+            this.indices = new int[size];
+            this.values = new double[size];
+            int count = 0;
+            for (int i = 0; i < alphas.length; i++) {
+                if (alphas[i] > 0.0d) {
+                    this.indices[count] = i;
+                    this.values[count] = alphas[i];
+                    count++;
+                }
+            }
+        }
+
+        double[] toArray(int size) {
+            double[] alphas = new double[size];
+            for (int i = 0; i < this.indices.length; i++) {
+                alphas[this.indices[i]] = this.values[i];
+            }
+            return alphas;
+        }
+    }
+
+    // reads consecutive doubles of a file through read-only mappings of at most MAX_MAPPED_BYTES each,
+    // so that a model file larger than 2GB can be loaded
+    private static class MappedDoubleReader {
+        private final FileChannel channel;
+        private long position;
+        private DoubleBuffer buffer;
+
+        MappedDoubleReader(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+            this.buffer = DoubleBuffer.allocate(0);
+        }
+
+        void get(double[] out) throws IOException {
+            int offset = 0;
+            while (offset < out.length) {
+                if (!this.buffer.hasRemaining()) {
+                    long bytes = Math.min(MAX_MAPPED_BYTES, this.channel.size() - this.position) / 8L * 8L;
+                    if (bytes <= 0L) {
+                        throw new EOFException();
+                    }
+
+                    this.buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, this.position, bytes).asDoubleBuffer();
+                    this.position += bytes;
+                }
+
+                int length = Math.min(out.length - offset, this.buffer.remaining());
+                this.buffer.get(out, offset, length);
+                offset += length;
+            }
+        }
+
+        // file position of the next double
+        long getPosition() {
+            return this.position - 8L * (long) this.buffer.remaining();
+        }
+    }
+
+    // reads a string written by DataOutput.writeUTF
+    private static String readUtf(ByteBuffer buffer) throws IOException {
+        int length = buffer.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length + 2];
+        bytes[0] = (byte) (length >>> 8);
+        bytes[1] = (byte) length;
+        buffer.get(bytes, 2, length);
+        return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+    }
 }
@@ -0,0 +1,64 @@
+package ymatsubara.dslib.neighbor;
+
+import ymatsubara.dslib.statistics.Kernel;
+import ymatsubara.dslib.structure.FeatureVector;
+
+// every node keeps the centroid of its vectors and the largest distance from it, which suits higher dimensions than KdTree
+public class BallTree extends SpatialIndex {
+    private double[][] centroids;
+    private double[] radii;
+
+    public BallTree(double[][] arrays, String metric, int leafSize) {
+        super(arrays, metric, leafSize);
+        buildTree();
+    }
+
+    public BallTree(FeatureVector[] vecs, String metric, int leafSize) {
+        this(Kernel.toArrays(vecs), metric, leafSize);
+    }
+
+    public BallTree(FeatureVector[] vecs, String metric) {
+        this(vecs, metric, DEFAULT_LEAF_SIZE);
+    }
+
+    public BallTree(FeatureVector[] vecs) {
+        this(vecs, EUCLIDEAN_METRIC);
+    }
+
+    @Override
+    protected void initNodeBounds(int maxNodeSize) {
+        this.centroids = new double[maxNodeSize][];
+        this.radii = new double[maxNodeSize];
+    }
+
+    @Override
+    protected void calcNodeBounds(int node, int start, int end) {
+        int dimension = this.arrays[this.order[start]].length;
+        double[] centroid = new double[dimension];
+        for (int i = start; i < end; i++) {
+            double[] array = this.arrays[this.order[i]];
+            for (int j = 0; j < dimension; j++) {
+                centroid[j] += array[j];
+            }
+        }
+
+        for (int j = 0; j < dimension; j++) {
+            centroid[j] /= (double) (end - start);
+        }
+
+        double radius = 0.0d;
+        for (int i = start; i < end; i++) {
+            radius = Math.max(radius, calcDistance(centroid, this.arrays[this.order[i]]));
+        }
+
+        this.centroids[node] = centroid;
+        this.radii[node] = radius;
+    }
+
+    // triangle inequality
+    @Override
+    protected double calcLowerBound(int node, double[] query) {
+        double distance = calcDistance(query, this.centroids[node]);
+        return Math.max(distance - this.radii[node] - BOUND_TOLERANCE * (distance + this.radii[node]), 0.0d);
+    }
+}
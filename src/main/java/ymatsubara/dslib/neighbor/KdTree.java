@@ -0,0 +1,71 @@
+package ymatsubara.dslib.neighbor;
+
+import ymatsubara.dslib.statistics.Kernel;
+import ymatsubara.dslib.structure.FeatureVector;
+
+// every node keeps the axis-aligned bounding box of its vectors
+public class KdTree extends SpatialIndex {
+    private double[][] nodeMins, nodeMaxs;
+
+    public KdTree(double[][] arrays, String metric, int leafSize) {
+        super(arrays, metric, leafSize);
+        buildTree();
+    }
+
+    public KdTree(FeatureVector[] vecs, String metric, int leafSize) {
+        this(Kernel.toArrays(vecs), metric, leafSize);
+    }
+
+    public KdTree(FeatureVector[] vecs, String metric) {
+        this(vecs, metric, DEFAULT_LEAF_SIZE);
+    }
+
+    public KdTree(FeatureVector[] vecs) {
+        this(vecs, EUCLIDEAN_METRIC);
+    }
+
+    @Override
+    protected void initNodeBounds(int maxNodeSize) {
+        this.nodeMins = new double[maxNodeSize][];
+        this.nodeMaxs = new double[maxNodeSize][];
+    }
+
+    @Override
+    protected void calcNodeBounds(int node, int start, int end) {
+        int dimension = this.arrays[this.order[start]].length;
+        double[] mins = new double[dimension];
+        double[] maxs = new double[dimension];
+        for (int j = 0; j < dimension; j++) {
+            mins[j] = Double.POSITIVE_INFINITY;
+            maxs[j] = Double.NEGATIVE_INFINITY;
+        }
+
+        for (int i = start; i < end; i++) {
+            double[] array = this.arrays[this.order[i]];
+            for (int j = 0; j < dimension; j++) {
+                mins[j] = Math.min(mins[j], array[j]);
+                maxs[j] = Math.max(maxs[j], array[j]);
+            }
+        }
+
+        this.nodeMins[node] = mins;
+        this.nodeMaxs[node] = maxs;
+    }
+
+    // distance from the query to the bounding box
+    @Override
+    protected double calcLowerBound(int node, double[] query) {
+        double[] mins = this.nodeMins[node];
+        double[] maxs = this.nodeMaxs[node];
+        double sum = 0.0d;
+        for (int j = 0; j < query.length; j++) {
+            double value = query[j];
+            if (value < mins[j]) {
+                sum = combineGaps(sum, mins[j] - value);
+            } else if (value > maxs[j]) {
+                sum = combineGaps(sum, value - maxs[j]);
+            }
+        }
+        return finishGaps(sum) * (1.0d - BOUND_TOLERANCE);
+    }
+}
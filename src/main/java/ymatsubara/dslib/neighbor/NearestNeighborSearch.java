@@ -0,0 +1,169 @@
+package ymatsubara.dslib.neighbor;
+
+import ymatsubara.dslib.common.BasicAlgebra;
+import ymatsubara.dslib.statistics.Kernel;
+import ymatsubara.dslib.structure.FeatureVector;
+import ymatsubara.dslib.util.ParallelUtil;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+// brute-force Euclidean neighbor search, where ||x - y||^2 = ||x||^2 + ||y||^2 - 2x.y is computed
+// for a block of queries against a block of references at once by a matrix product
+public class NearestNeighborSearch {
+    public static final int QUERY_BLOCK_SIZE = 64;
+    public static final int REFERENCE_BLOCK_SIZE = 256;
+
+    public static double[][] calcSquaredDistances(FeatureVector[] vecsX, FeatureVector[] vecsY) {
+        double[][] matrix = new double[vecsX.length][vecsY.length];
+        ParallelUtil.invoke(new QueryBlockTask(vecsX, new ReferenceSet(vecsY), matrix));
+        return matrix;
+    }
+
+    public static double[][] calcDistances(FeatureVector[] vecsX, FeatureVector[] vecsY) {
+        double[][] matrix = calcSquaredDistances(vecsX, vecsY);
+        for (double[] array : matrix) {
+            for (int j = 0; j < array.length; j++) {
+                array[j] = Math.sqrt(array[j]);
+            }
+        }
+        return matrix;
+    }
+
+    // k nearest references of every query
+    public static Neighbors searchKNearestNeighbors(FeatureVector[] queryVecs, FeatureVector[] referenceVecs, int k) {
+        QueryBlockTask task = new QueryBlockTask(queryVecs, new ReferenceSet(referenceVecs), Math.min(k, referenceVecs.length), false);
+        ParallelUtil.invoke(task);
+        return new Neighbors(task.indices, task.distances);
+    }
+
+    // k nearest neighbors of every vector among the others
+    public static Neighbors searchKNearestNeighbors(FeatureVector[] vecs, int k) {
+        QueryBlockTask task = new QueryBlockTask(vecs, new ReferenceSet(vecs), Math.max(Math.min(k, vecs.length - 1), 0), true);
+        ParallelUtil.invoke(task);
+        return new Neighbors(task.indices, task.distances);
+    }
+
+    private static class ReferenceSet {
+        private final double[] squaredNorms;
+        // i-th block of references transposed into a (dimension x block size) matrix
+        private final double[][][] transposedBlocks;
+        private final int size;
+
+        ReferenceSet(FeatureVector[] vecs) {
+            double[][] arrays = Kernel.toArrays(vecs);
+            int dimension = (arrays.length > 0) ? arrays[0].length : 0;
+            this.size = arrays.length;
+            this.squaredNorms = Kernel.calcSquaredNorms(vecs);
+            this.transposedBlocks = new double[(arrays.length + REFERENCE_BLOCK_SIZE - 1) / REFERENCE_BLOCK_SIZE][][];
+            for (int i = 0; i < this.transposedBlocks.length; i++) {
+                int from = i * REFERENCE_BLOCK_SIZE;
+                int to = Math.min(from + REFERENCE_BLOCK_SIZE, arrays.length);
+                this.transposedBlocks[i] = new double[dimension][to - from];
+                BasicAlgebra.transposeMatrix(Arrays.copyOfRange(arrays, from, to), this.transposedBlocks[i]);
+            }
+        }
+    }
+
+    private static class QueryBlockTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final double[][] queryArrays;
+        private final double[] querySquaredNorms;
+        private final ReferenceSet referenceSet;
+        private final int k;
+        private final boolean excludingSelf;
+        private final double[][] matrix;
+        private final int[][] indices;
+        private final double[][] distances;
+        private final int from, to;
+
+        private QueryBlockTask(double[][] queryArrays, double[] querySquaredNorms, ReferenceSet referenceSet, int k, boolean excludingSelf,
+                               double[][] matrix, int[][] indices, double[][] distances, int from, int to) {
+            this.queryArrays = queryArrays;
+            this.querySquaredNorms = querySquaredNorms;
+            this.referenceSet = referenceSet;
+            this.k = k;
+            this.excludingSelf = excludingSelf;
+            this.matrix = matrix;
+            this.indices = indices;
+            this.distances = distances;
+            this.from = from;
+            this.to = to;
+        }
+
+        QueryBlockTask(FeatureVector[] queryVecs, ReferenceSet referenceSet, double[][] matrix) {
+            this(Kernel.toArrays(queryVecs), Kernel.calcSquaredNorms(queryVecs), referenceSet, 0, false,
+                    matrix, null, null, 0, (queryVecs.length + QUERY_BLOCK_SIZE - 1) / QUERY_BLOCK_SIZE);
+        }
+
+        QueryBlockTask(FeatureVector[] queryVecs, ReferenceSet referenceSet, int k, boolean excludingSelf) {
+            this(Kernel.toArrays(queryVecs), Kernel.calcSquaredNorms(queryVecs), referenceSet, k, excludingSelf,
+                    null, new int[queryVecs.length][k], new double[queryVecs.length][k], 0, (queryVecs.length + QUERY_BLOCK_SIZE - 1) / QUERY_BLOCK_SIZE);
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= 1) {
+                for (int block = this.from; block < this.to; block++) {
+                    computeBlock(block);
+                }
+                return;
+            }
+
+            int mid = (this.from + this.to) >>> 1;
+            invokeAll(new QueryBlockTask(this.queryArrays, this.querySquaredNorms, this.referenceSet, this.k, this.excludingSelf,
+                            this.matrix, this.indices, this.distances, this.from, mid),
+                    new QueryBlockTask(this.queryArrays, this.querySquaredNorms, this.referenceSet, this.k, this.excludingSelf,
+                            this.matrix, this.indices, this.distances, mid, this.to));
+        }
+
+        private void computeBlock(int block) {
+            int queryFrom = block * QUERY_BLOCK_SIZE;
+            int queryTo = Math.min(queryFrom + QUERY_BLOCK_SIZE, this.queryArrays.length);
+            double[][] queryBlock = Arrays.copyOfRange(this.queryArrays, queryFrom, queryTo);
+            double[][] products = null;
+            NeighborHeap[] heaps = null;
+            if (this.matrix == null) {
+                heaps = new NeighborHeap[queryBlock.length];
+                for (int i = 0; i < heaps.length; i++) {
+                    heaps[i] = new NeighborHeap(this.k);
+                }
+            }
+
+            double[][][] transposedBlocks = this.referenceSet.transposedBlocks;
+            for (int referenceBlock = 0; referenceBlock < transposedBlocks.length; referenceBlock++) {
+                int referenceFrom = referenceBlock * REFERENCE_BLOCK_SIZE;
+                int referenceSize = Math.min(REFERENCE_BLOCK_SIZE, this.referenceSet.size - referenceFrom);
+                if (products == null || products[0].length != referenceSize) {
+                    products = new double[queryBlock.length][referenceSize];
+                }
+
+                BasicAlgebra.calcMatrixProduct(queryBlock, transposedBlocks[referenceBlock], products);
+                for (int i = 0; i < queryBlock.length; i++) {
+                    int query = queryFrom + i;
+                    double querySquaredNorm = this.querySquaredNorms[query];
+                    double[] array = products[i];
+                    for (int j = 0; j < referenceSize; j++) {
+                        int reference = referenceFrom + j;
+                        double squaredDistance = Math.max(querySquaredNorm + this.referenceSet.squaredNorms[reference] - 2.0d * array[j], 0.0d);
+                        if (heaps == null) {
+                            this.matrix[query][reference] = squaredDistance;
+                        } else if (!this.excludingSelf || query != reference) {
+                            heaps[i].offer(squaredDistance, reference);
+                        }
+                    }
+                }
+            }
+
+            if (heaps != null) {
+                for (int i = 0; i < heaps.length; i++) {
+                    int query = queryFrom + i;
+                    heaps[i].drainSorted(this.distances[query], this.indices[query]);
+                    for (int j = 0; j < this.k; j++) {
+                        this.distances[query][j] = Math.sqrt(this.distances[query][j]);
+                    }
+                }
+            }
+        }
+    }
+}
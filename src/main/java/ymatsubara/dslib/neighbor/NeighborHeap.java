@@ -0,0 +1,119 @@
+package ymatsubara.dslib.neighbor;
+
+// max-heap keeping the k nearest candidates seen so far, whose root is the farthest one;
+// public so that a thread running many queries can reuse one heap instead of allocating one per query
+public class NeighborHeap {
+    private final double[] distances;
+    private final int[] indices;
+    private int size;
+    // every offered candidate is a computed distance
+    private long offerCount;
+
+    public NeighborHeap(int capacity) {
+        this.distances = new double[capacity];
+        this.indices = new int[capacity];
+        this.size = 0;
+        this.offerCount = 0L;
+    }
+
+    // ties are broken by index so that results do not depend on the order of candidates
+    private boolean isFarther(double distanceX, int indexX, double distanceY, int indexY) {
+        return distanceX > distanceY || (distanceX == distanceY && indexX > indexY);
+    }
+
+    int getSize() {
+        return this.size;
+    }
+
+    int getCapacity() {
+        return this.distances.length;
+    }
+
+    // index of the farthest candidate, which is the nearest one if the capacity is 1
+    int getFarthestIndex() {
+        return this.indices[0];
+    }
+
+    boolean isFull() {
+        return this.size == this.distances.length;
+    }
+
+    // distance of the current k-th candidate, or infinity if the heap is not full yet
+    double getMaxDistance() {
+        return isFull() ? this.distances[0] : Double.POSITIVE_INFINITY;
+    }
+
+    // number of candidates offered since the heap was created, which is kept by clear()
+    public long getOfferCount() {
+        return this.offerCount;
+    }
+
+    void clear() {
+        this.size = 0;
+    }
+
+    void offer(double distance, int index) {
+        this.offerCount++;
+        if (this.distances.length == 0) {
+            return;
+        }
+
+        if (this.size < this.distances.length) {
+            int child = this.size++;
+            while (child > 0) {
+                int parent = (child - 1) >>> 1;
+                if (!isFarther(distance, index, this.distances[parent], this.indices[parent])) {
+                    break;
+                }
+
+                this.distances[child] = this.distances[parent];
+                this.indices[child] = this.indices[parent];
+                child = parent;
+            }
+
+            this.distances[child] = distance;
+            this.indices[child] = index;
+            return;
+        }
+
+        if (!isFarther(this.distances[0], this.indices[0], distance, index)) {
+            return;
+        }
+        siftDown(distance, index, this.size);
+    }
+
+    private void siftDown(double distance, int index, int size) {
+        int parent = 0;
+        while (true) {
+            int child = 2 * parent + 1;
+            if (child >= size) {
+                break;
+            }
+
+            if (child + 1 < size && isFarther(this.distances[child + 1], this.indices[child + 1], this.distances[child], this.indices[child])) {
+                child++;
+            }
+
+            if (!isFarther(this.distances[child], this.indices[child], distance, index)) {
+                break;
+            }
+
+            this.distances[parent] = this.distances[child];
+            this.indices[parent] = this.indices[child];
+            parent = child;
+        }
+
+        this.distances[parent] = distance;
+        this.indices[parent] = index;
+    }
+
+    // writes the candidates in ascending order of distance and empties the heap
+    void drainSorted(double[] outDistances, int[] outIndices) {
+        for (int last = this.size - 1; last >= 0; last--) {
+            outDistances[last] = this.distances[0];
+            outIndices[last] = this.indices[0];
+            siftDown(this.distances[last], this.indices[last], last);
+        }
+        this.size = 0;
+    }
+}
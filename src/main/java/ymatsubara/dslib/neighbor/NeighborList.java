@@ -0,0 +1,49 @@
+package ymatsubara.dslib.neighbor;
+
+// growable list of neighbor candidates for queries whose result size is not known in advance
+class NeighborList {
+    private double[] distances;
+    private int[] indices;
+    private int size;
+
+    NeighborList() {
+        this.distances = new double[16];
+        this.indices = new int[16];
+        this.size = 0;
+    }
+
+    void add(double distance, int index) {
+        if (this.size == this.distances.length) {
+            int capacity = this.size * 2;
+            double[] newDistances = new double[capacity];
+            int[] newIndices = new int[capacity];
+            System.arraycopy(this.distances, 0, newDistances, 0, this.size);
+            System.arraycopy(this.indices, 0, newIndices, 0, this.size);
+            this.distances = newDistances;
+            this.indices = newIndices;
+        }
+
+        this.distances[this.size] = distance;
+        this.indices[this.size] = index;
+        this.size++;
+    }
+
+    int getSize() {
+        return this.size;
+    }
+
+    void clear() {
+        this.size = 0;
+    }
+
+    // writes the candidates in ascending order of distance and empties the list
+    void drainSorted(double[] outDistances, int[] outIndices) {
+        NeighborHeap heap = new NeighborHeap(this.size);
+        for (int i = 0; i < this.size; i++) {
+            heap.offer(this.distances[i], this.indices[i]);
+        }
+
+        heap.drainSorted(outDistances, outIndices);
+        this.size = 0;
+    }
+}
@@ -0,0 +1,26 @@
+package ymatsubara.dslib.neighbor;
+
+// indices[i] and distances[i] are the neighbors of the i-th query in ascending order of distance
+public class Neighbors {
+    public final int[][] indices;
+    public final double[][] distances;
+
+    public Neighbors(int[][] indices, double[][] distances) {
+        this.indices = indices;
+        this.distances = distances;
+    }
+
+    public int getQuerySize() {
+        return this.indices.length;
+    }
+
+    public int getNeighborSize(int query) {
+        return this.indices[query].length;
+    }
+
+    // distance to the farthest neighbor of the query, i.e. k-distance
+    public double getKthDistance(int query) {
+        double[] array = this.distances[query];
+        return (array.length > 0) ? array[array.length - 1] : Double.NaN;
+    }
+}
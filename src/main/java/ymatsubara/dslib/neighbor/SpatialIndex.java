@@ -0,0 +1,371 @@
+package ymatsubara.dslib.neighbor;
+
+import ymatsubara.dslib.common.BasicAlgebra;
+import ymatsubara.dslib.statistics.Kernel;
+import ymatsubara.dslib.structure.FeatureVector;
+import ymatsubara.dslib.util.ParallelUtil;
+
+import java.util.concurrent.RecursiveAction;
+
+// binary space partitioning tree whose nodes own ranges of a permutation of the indexed vectors,
+// split at the median of the dimension with the largest spread; subclasses define the bounds of a node
+public abstract class SpatialIndex {
+    public static final String KD_TREE_TYPE = "KD TREE";
+    public static final String BALL_TREE_TYPE = "BALL TREE";
+    public static final String EUCLIDEAN_METRIC = "EUCLIDEAN";
+    public static final String MANHATTAN_METRIC = "MANHATTAN";
+    public static final int DEFAULT_LEAF_SIZE = 16;
+    public static final int QUERY_TASK_SIZE = 64;
+    // lower bounds are loosened by this relative tolerance so that rounding errors never prune a vector exactly on the boundary
+    protected static final double BOUND_TOLERANCE = 1.0e-12d;
+    private static final int ROOT = 0;
+    protected final double[][] arrays;
+    protected final String metric;
+    protected final int[] order;
+    protected int[] nodeStarts, nodeEnds, leftChildren, rightChildren;
+    private final boolean manhattan;
+    private final int leafSize;
+    private int nodeSize;
+
+    protected SpatialIndex(double[][] arrays, String metric, int leafSize) {
+        this.arrays = arrays;
+        this.metric = metric;
+        this.manhattan = metric.equals(MANHATTAN_METRIC);
+        if (!this.manhattan && !metric.equals(EUCLIDEAN_METRIC)) {
+            System.err.println(metric + " is an invalid metric, and " + EUCLIDEAN_METRIC + " is used instead.");
+        }
+
+        this.leafSize = Math.max(leafSize, 1);
+        this.order = new int[arrays.length];
+        for (int i = 0; i < this.order.length; i++) {
+            this.order[i] = i;
+        }
+    }
+
+    public static SpatialIndex build(double[][] arrays, String type, String metric, int leafSize) {
+        if (type.equals(KD_TREE_TYPE)) {
+            return new KdTree(arrays, metric, leafSize);
+        } else if (type.equals(BALL_TREE_TYPE)) {
+            return new BallTree(arrays, metric, leafSize);
+        }
+
+        System.err.println(type + " is an invalid spatial index type.");
+        return null;
+    }
+
+    public static SpatialIndex build(FeatureVector[] vecs, String type, String metric) {
+        return build(Kernel.toArrays(vecs), type, metric, DEFAULT_LEAF_SIZE);
+    }
+
+    // called by subclasses after their own fields are initialized
+    protected void buildTree() {
+        int maxNodeSize = calcNodeSize(this.arrays.length);
+        this.nodeStarts = new int[maxNodeSize];
+        this.nodeEnds = new int[maxNodeSize];
+        this.leftChildren = new int[maxNodeSize];
+        this.rightChildren = new int[maxNodeSize];
+        initNodeBounds(maxNodeSize);
+        this.nodeSize = 0;
+        if (this.arrays.length > 0) {
+            buildNode(0, this.arrays.length);
+        }
+    }
+
+    private int calcNodeSize(int size) {
+        if (size <= this.leafSize) {
+            return 1;
+        }
+
+        int half = size / 2;
+        return 1 + calcNodeSize(half) + calcNodeSize(size - half);
+    }
+
+    private int buildNode(int start, int end) {
+        int node = this.nodeSize++;
+        this.nodeStarts[node] = start;
+        this.nodeEnds[node] = end;
+        this.leftChildren[node] = -1;
+        this.rightChildren[node] = -1;
+        calcNodeBounds(node, start, end);
+        if (end - start <= this.leafSize) {
+            return node;
+        }
+
+        int mid = start + (end - start) / 2;
+        selectMedian(start, end, mid, findWidestDimension(start, end));
+        this.leftChildren[node] = buildNode(start, mid);
+        this.rightChildren[node] = buildNode(mid, end);
+        return node;
+    }
+
+    private int findWidestDimension(int start, int end) {
+        int dimension = this.arrays[this.order[start]].length;
+        int widestDimension = 0;
+        double maxSpread = -1.0d;
+        for (int j = 0; j < dimension; j++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = start; i < end; i++) {
+                double value = this.arrays[this.order[i]][j];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+
+            if (max - min > maxSpread) {
+                maxSpread = max - min;
+                widestDimension = j;
+            }
+        }
+        return widestDimension;
+    }
+
+    // partially sorts order[start..end-1] so that order[mid] has the median value of the dimension (quickselect)
+    private void selectMedian(int start, int end, int mid, int dimension) {
+        int left = start;
+        int right = end - 1;
+        while (left < right) {
+            double pivot = this.arrays[this.order[(left + right) >>> 1]][dimension];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (this.arrays[this.order[i]][dimension] < pivot) {
+                    i++;
+                }
+
+                while (this.arrays[this.order[j]][dimension] > pivot) {
+                    j--;
+                }
+
+                if (i <= j) {
+                    int tmp = this.order[i];
+                    this.order[i] = this.order[j];
+                    this.order[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+
+            if (mid <= j) {
+                right = j;
+            } else if (mid >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    protected abstract void initNodeBounds(int maxNodeSize);
+
+    protected abstract void calcNodeBounds(int node, int start, int end);
+
+    // lower bound of the distance between the query and any vector in the node
+    protected abstract double calcLowerBound(int node, double[] query);
+
+    public double calcDistance(double[] arrayX, double[] arrayY) {
+        if (this.manhattan) {
+            return BasicAlgebra.calcManhattanDistance(arrayX, arrayY);
+        }
+        return BasicAlgebra.calcEuclideanDistance(arrayX, arrayY);
+    }
+
+    // combines per-dimension gaps into a distance of the metric
+    protected double combineGaps(double sum, double gap) {
+        return this.manhattan ? sum + gap : sum + gap * gap;
+    }
+
+    protected double finishGaps(double sum) {
+        return this.manhattan ? sum : Math.sqrt(sum);
+    }
+
+    public int getSize() {
+        return this.arrays.length;
+    }
+
+    public String getMetric() {
+        return this.metric;
+    }
+
+    private void searchKNearest(int node, double lowerBound, double[] query, int excludedIndex, NeighborHeap heap) {
+        if (lowerBound > heap.getMaxDistance()) {
+            return;
+        }
+
+        int left = this.leftChildren[node];
+        if (left < 0) {
+            for (int i = this.nodeStarts[node]; i < this.nodeEnds[node]; i++) {
+                int index = this.order[i];
+                if (index != excludedIndex) {
+                    heap.offer(calcDistance(query, this.arrays[index]), index);
+                }
+            }
+            return;
+        }
+
+        int right = this.rightChildren[node];
+        double leftBound = calcLowerBound(left, query);
+        double rightBound = calcLowerBound(right, query);
+        if (leftBound <= rightBound) {
+            searchKNearest(left, leftBound, query, excludedIndex, heap);
+            searchKNearest(right, rightBound, query, excludedIndex, heap);
+        } else {
+            searchKNearest(right, rightBound, query, excludedIndex, heap);
+            searchKNearest(left, leftBound, query, excludedIndex, heap);
+        }
+    }
+
+    private void searchRadius(int node, double[] query, double radius, int excludedIndex, NeighborList list) {
+        if (calcLowerBound(node, query) > radius) {
+            return;
+        }
+
+        int left = this.leftChildren[node];
+        if (left < 0) {
+            for (int i = this.nodeStarts[node]; i < this.nodeEnds[node]; i++) {
+                int index = this.order[i];
+                if (index == excludedIndex) {
+                    continue;
+                }
+
+                double distance = calcDistance(query, this.arrays[index]);
+                if (distance <= radius) {
+                    list.add(distance, index);
+                }
+            }
+            return;
+        }
+
+        searchRadius(left, query, radius, excludedIndex, list);
+        searchRadius(this.rightChildren[node], query, radius, excludedIndex, list);
+    }
+
+    private void searchKNearest(double[] query, int excludedIndex, NeighborHeap heap, double[] outDistances, int[] outIndices) {
+        if (this.arrays.length > 0) {
+            searchKNearest(ROOT, calcLowerBound(ROOT, query), query, excludedIndex, heap);
+        }
+        heap.drainSorted(outDistances, outIndices);
+    }
+
+    // index of the nearest vector to the query, or -1 if the index is empty
+    public int searchNearestNeighbor(double[] query) {
+        return searchNearestNeighbor(query, new NeighborHeap(1));
+    }
+
+    // same as searchNearestNeighbor(double[]) but reuses heap, whose capacity must be 1, so that repeated queries do not allocate
+    public int searchNearestNeighbor(double[] query, NeighborHeap heap) {
+        if (heap.getCapacity() != 1) {
+            throw new IllegalArgumentException("heap capacity must be 1 : " + heap.getCapacity());
+        }
+
+        if (this.arrays.length == 0) {
+            return -1;
+        }
+
+        heap.clear();
+        searchKNearest(ROOT, calcLowerBound(ROOT, query), query, -1, heap);
+        return heap.getFarthestIndex();
+    }
+
+    public Neighbors searchKNearestNeighbors(double[][] queries, int k) {
+        SearchTask task = new SearchTask(this, queries, Math.min(k, this.arrays.length), Double.NaN, false);
+        ParallelUtil.invoke(task);
+        return new Neighbors(task.indices, task.distances);
+    }
+
+    public Neighbors searchKNearestNeighbors(FeatureVector[] queryVecs, int k) {
+        return searchKNearestNeighbors(Kernel.toArrays(queryVecs), k);
+    }
+
+    // k nearest neighbors of every indexed vector among the others
+    public Neighbors searchKNearestNeighbors(int k) {
+        SearchTask task = new SearchTask(this, this.arrays, Math.max(Math.min(k, this.arrays.length - 1), 0), Double.NaN, true);
+        ParallelUtil.invoke(task);
+        return new Neighbors(task.indices, task.distances);
+    }
+
+    // every indexed vector within the radius from the query in ascending order of distance
+    public Neighbors searchRadius(double[][] queries, double radius) {
+        SearchTask task = new SearchTask(this, queries, 0, radius, false);
+        ParallelUtil.invoke(task);
+        return new Neighbors(task.indices, task.distances);
+    }
+
+    public Neighbors searchRadius(FeatureVector[] queryVecs, double radius) {
+        return searchRadius(Kernel.toArrays(queryVecs), radius);
+    }
+
+    // every indexed vector within the radius from each indexed vector, excluding itself
+    public Neighbors searchRadius(double radius) {
+        SearchTask task = new SearchTask(this, this.arrays, 0, radius, true);
+        ParallelUtil.invoke(task);
+        return new Neighbors(task.indices, task.distances);
+    }
+
+    private static class SearchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final SpatialIndex index;
+        private final double[][] queries;
+        private final int k;
+        private final double radius;
+        private final boolean excludingSelf;
+        private final int[][] indices;
+        private final double[][] distances;
+        private final int from, to;
+
+        private SearchTask(SpatialIndex index, double[][] queries, int k, double radius, boolean excludingSelf,
+                           int[][] indices, double[][] distances, int from, int to) {
+            this.index = index;
+            this.queries = queries;
+            this.k = k;
+            this.radius = radius;
+            this.excludingSelf = excludingSelf;
+            this.indices = indices;
+            this.distances = distances;
+            this.from = from;
+            this.to = to;
+        }
+
+        // kNN search if radius is NaN, otherwise radius search
+        SearchTask(SpatialIndex index, double[][] queries, int k, double radius, boolean excludingSelf) {
+            this(index, queries, k, radius, excludingSelf, new int[queries.length][], new double[queries.length][], 0, queries.length);
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= QUERY_TASK_SIZE) {
+                if (Double.isNaN(this.radius)) {
+                    searchKNearest();
+                } else {
+                    searchRadius();
+                }
+                return;
+            }
+
+            int mid = (this.from + this.to) >>> 1;
+            invokeAll(new SearchTask(this.index, this.queries, this.k, this.radius, this.excludingSelf, this.indices, this.distances, this.from, mid),
+                    new SearchTask(this.index, this.queries, this.k, this.radius, this.excludingSelf, this.indices, this.distances, mid, this.to));
+        }
+
+        private void searchKNearest() {
+            NeighborHeap heap = new NeighborHeap(this.k);
+            for (int i = this.from; i < this.to; i++) {
+                this.indices[i] = new int[this.k];
+                this.distances[i] = new double[this.k];
+                this.index.searchKNearest(this.queries[i], this.excludingSelf ? i : -1, heap, this.distances[i], this.indices[i]);
+            }
+        }
+
+        private void searchRadius() {
+            NeighborList list = new NeighborList();
+            for (int i = this.from; i < this.to; i++) {
+                if (this.index.arrays.length > 0) {
+                    this.index.searchRadius(ROOT, this.queries[i], this.radius, this.excludingSelf ? i : -1, list);
+                }
+
+                this.indices[i] = new int[list.getSize()];
+                this.distances[i] = new double[list.getSize()];
+                list.drainSorted(this.distances[i], this.indices[i]);
+            }
+        }
+    }
+}
@@ -7,13 +7,16 @@ public class Decomposition {
     public static String NEGATIVE_LABEL = "-1";
     public static int POSITIVE_VALUE = 1;
     public static int NEGATIVE_VALUE = -1;
+    public static final double PROJECTION_TOLERANCE = 1.0e-12d;
 
     // R. Fan et. al. "Working Set Selection Using Second Order Information for Training Support Vector Machines"
-    public static int[] workingSetSelection3(double c, double tau, double tolerance, int[] labels, SymmetricMatrix kernelMatrix, double[] alphas, double[] gradients) {
+    // only the first activeSize indices in activeSet are considered, and all indices are considered if activeSet is null
+    public static int[] workingSetSelection3(double c, double tau, double tolerance, int[] labels, SymmetricMatrix kernelMatrix, double[] alphas, double[] gradients, int[] activeSet, int activeSize) {
         // select i
         int i = -1;
         double gradientMax = -Double.MAX_VALUE;
-        for (int t = 0; t < labels.length; t++) {
+        for (int s = 0; s < activeSize; s++) {
+            int t = (activeSet == null) ? s : activeSet[s];
             if ((labels[t] == POSITIVE_VALUE && alphas[t] < c) || (labels[t] == NEGATIVE_VALUE && alphas[t] > 0)) {
                 double gradient = -(double) labels[t] * gradients[t];
                 if (gradient >= gradientMax) {
@@ -27,7 +30,8 @@ public class Decomposition {
         int j = -1;
         double gradientMin = Double.MAX_VALUE;
         double valueMin = Double.MAX_VALUE;
-        for (int t = 0; t < labels.length; t++) {
+        for (int s = 0; s < activeSize; s++) {
+            int t = (activeSet == null) ? s : activeSet[s];
             if ((labels[t] == POSITIVE_VALUE && alphas[t] > 0) || (labels[t] == NEGATIVE_VALUE && alphas[t] < c)) {
                 double b = gradientMax + (double) labels[t] * gradients[t];
                 double gradient = -(double) labels[t] * gradients[t];
@@ -41,7 +45,7 @@ public class Decomposition {
                         a = tau;
                     }
 
-                    double value = -Math.pow(b, 2.0d) / a;
+                    double value = -b * b / a;
                     if (value <= valueMin) {
                         j = t;
                         valueMin = value;
@@ -55,4 +59,141 @@ public class Decomposition {
         }
         return new int[]{i, j};
     }
-}
\ No newline at end of file
+
+    public static int[] workingSetSelection3(double c, double tau, double tolerance, int[] labels, SymmetricMatrix kernelMatrix, double[] alphas, double[] gradients) {
+        return workingSetSelection3(c, tau, tolerance, labels, kernelMatrix, alphas, gradients, null, labels.length);
+    }
+
+    // returns {max -y[t]G[t] for t in I_up, max y[t]G[t] for t in I_low} over the active set
+    public static double[] calcMaxViolations(double c, int[] labels, double[] alphas, double[] gradients, int[] activeSet, int activeSize) {
+        double gradientMax1 = -Double.MAX_VALUE;
+        double gradientMax2 = -Double.MAX_VALUE;
+        for (int s = 0; s < activeSize; s++) {
+            int t = activeSet[s];
+            if (labels[t] == POSITIVE_VALUE) {
+                if (alphas[t] < c && -gradients[t] >= gradientMax1) {
+                    gradientMax1 = -gradients[t];
+                }
+
+                if (alphas[t] > 0.0d && gradients[t] >= gradientMax2) {
+                    gradientMax2 = gradients[t];
+                }
+            } else {
+                if (alphas[t] < c && -gradients[t] >= gradientMax2) {
+                    gradientMax2 = -gradients[t];
+                }
+
+                if (alphas[t] > 0.0d && gradients[t] >= gradientMax1) {
+                    gradientMax1 = gradients[t];
+                }
+            }
+        }
+        return new double[]{gradientMax1, gradientMax2};
+    }
+
+    private static boolean isShrinkable(double c, double gradientMax1, double gradientMax2, int label, double alpha, double gradient) {
+        if (alpha >= c) {
+            return (label == POSITIVE_VALUE) ? -gradient > gradientMax1 : -gradient > gradientMax2;
+        } else if (alpha <= 0.0d) {
+            return (label == POSITIVE_VALUE) ? gradient > gradientMax2 : gradient > gradientMax1;
+        }
+        return false;
+    }
+
+    // R. Fan et. al. "Working Set Selection Using Second Order Information for Training Support Vector Machines" (Section 5)
+    // moves indices whose alphas are likely to stay at a bound behind the active set, and returns the new active size
+    public static int shrinkActiveSet(double c, double gradientMax1, double gradientMax2, int[] labels, double[] alphas, double[] gradients, int[] activeSet, int activeSize) {
+        for (int s = 0; s < activeSize; s++) {
+            int t = activeSet[s];
+            if (isShrinkable(c, gradientMax1, gradientMax2, labels[t], alphas[t], gradients[t])) {
+                activeSize--;
+                while (activeSize > s) {
+                    int u = activeSet[activeSize];
+                    if (!isShrinkable(c, gradientMax1, gradientMax2, labels[u], alphas[u], gradients[u])) {
+                        activeSet[s] = u;
+                        activeSet[activeSize] = t;
+                        break;
+                    }
+                    activeSize--;
+                }
+            }
+        }
+        return activeSize;
+    }
+
+    // recompute the gradients of the inactive indices (G = Q * alpha) which are not updated while shrunk
+    public static void reconstructGradients(SymmetricMatrix kernelMatrix, int[] labels, double[] alphas, double[] gradients, int[] activeSet, int activeSize) {
+        if (activeSize == activeSet.length) {
+            return;
+        }
+
+        for (int s = activeSize; s < activeSet.length; s++) {
+            gradients[activeSet[s]] = 0.0d;
+        }
+
+        double[] row = new double[alphas.length];
+        for (int i = 0; i < alphas.length; i++) {
+            if (alphas[i] > 0.0d) {
+                kernelMatrix.getRow(i, row);
+                double coef = (double) labels[i] * alphas[i];
+                for (int s = activeSize; s < activeSet.length; s++) {
+                    int t = activeSet[s];
+                    gradients[t] += (double) labels[t] * coef * row[t];
+                }
+            }
+        }
+    }
+
+    // project alphas onto {0 <= alphas[i] <= c, sum of alphas = sum} by clipping and spreading the residual over the free alphas,
+    // e.g. to warm-start a solver from the solution for another regularization parameter
+    // alphas at 0 receive a positive residual only if no alpha is free, so the support of a sparse solution is kept
+    public static void projectOntoFeasibleRegion(double[] alphas, double c, double sum) {
+        double total = 0.0d;
+        for (int i = 0; i < alphas.length; i++) {
+            alphas[i] = Math.min(Math.max(alphas[i], 0.0d), c);
+            total += alphas[i];
+        }
+
+        // each pass either removes the residual or moves at least one more alpha to a bound
+        double diff = sum - total;
+        while (Math.abs(diff) > PROJECTION_TOLERANCE * Math.max(1.0d, Math.abs(sum))) {
+            boolean includingZeros = false;
+            int count = countReceivers(alphas, c, diff, false);
+            if (count == 0 && diff > 0.0d) {
+                includingZeros = true;
+                count = countReceivers(alphas, c, diff, true);
+            }
+
+            if (count == 0) {
+                break;
+            }
+
+            double delta = diff / (double) count;
+            for (int i = 0; i < alphas.length; i++) {
+                if (isReceiver(alphas[i], c, diff, includingZeros)) {
+                    double alpha = Math.min(Math.max(alphas[i] + delta, 0.0d), c);
+                    total += alpha - alphas[i];
+                    alphas[i] = alpha;
+                }
+            }
+            diff = sum - total;
+        }
+    }
+
+    private static boolean isReceiver(double alpha, double c, double diff, boolean includingZeros) {
+        if (diff > 0.0d) {
+            return alpha < c && (includingZeros || alpha > 0.0d);
+        }
+        return alpha > 0.0d;
+    }
+
+    private static int countReceivers(double[] alphas, double c, double diff, boolean includingZeros) {
+        int count = 0;
+        for (double alpha : alphas) {
+            if (isReceiver(alpha, c, diff, includingZeros)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -37,26 +37,27 @@ public class DensityEstimator {
         }
 
         double btb = BasicAlgebra.calcInnerProduct(kernelSumArray, kernelSumArray);
+        double[] array = new double[alphas.length];
+        double[] arrayA = new double[alphas.length];
         double diff = Double.MAX_VALUE;
         while (Math.abs(diff) > tolerance) {
             double magnitude = BasicAlgebra.calcMagnitude(alphas);
-            double[] matProd = BasicAlgebra.calcMatrixProduct(kernelMatrix, alphas);
-            double[] array = new double[matProd.length];
+            BasicAlgebra.calcMatrixProduct(kernelMatrix, alphas, array);
             for (int i = 0; i < array.length; i++) {
-                array[i] = 1.0d / matProd[i];
+                array[i] = 1.0d / array[i];
             }
 
-            double[] arrayA = BasicAlgebra.calcMatrixProduct(BasicAlgebra.scalarMultiple(epsilon, BasicAlgebra.transposeMatrix(kernelMatrix)), array);
-            double[] alphasA = BasicAlgebra.calcVectorSum(alphas, arrayA);
-            double ipB = BasicAlgebra.calcInnerProduct(kernelSumArray, alphasA);
-            double[] arrayB = BasicAlgebra.scalarMultiple((1.0d - ipB) / btb, kernelSumArray);
-            double[] alphasB = BasicAlgebra.calcVectorSum(alphasA, arrayB);
-            for (int i = 0; i < alphasB.length; i++) {
-                alphasB[i] = (alphasB[i] > 0.0d) ? alphasB[i] : 0.0d;
+            // kernel matrix is symmetric, so K^T * array = K * array
+            BasicAlgebra.calcMatrixProduct(kernelMatrix, array, arrayA);
+            BasicAlgebra.axpy(epsilon, arrayA, alphas);
+            double ipB = BasicAlgebra.calcInnerProduct(kernelSumArray, alphas);
+            BasicAlgebra.axpy((1.0d - ipB) / btb, kernelSumArray, alphas);
+            for (int i = 0; i < alphas.length; i++) {
+                alphas[i] = (alphas[i] > 0.0d) ? alphas[i] : 0.0d;
             }
 
-            double ipC = BasicAlgebra.calcInnerProduct(kernelSumArray, alphasB);
-            alphas = BasicAlgebra.scalarMultiple(1.0d / ipC, alphasB);
+            double ipC = BasicAlgebra.calcInnerProduct(kernelSumArray, alphas);
+            BasicAlgebra.scalarMultiple(1.0d / ipC, alphas, alphas);
             diff = magnitude - BasicAlgebra.calcMagnitude(alphas);
         }
         return alphas;
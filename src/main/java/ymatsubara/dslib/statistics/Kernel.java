@@ -1,7 +1,13 @@
 package ymatsubara.dslib.statistics;
 
 import ymatsubara.dslib.common.BasicAlgebra;
+import ymatsubara.dslib.common.BasicMath;
 import ymatsubara.dslib.structure.FeatureVector;
+import ymatsubara.dslib.structure.MappedSymmetricMatrix;
+import ymatsubara.dslib.structure.SymmetricMatrix;
+import ymatsubara.dslib.util.ParallelUtil;
+
+import java.util.concurrent.RecursiveAction;
 
 public class Kernel {
     public static final String LINEAR_KERNEL_TYPE = "LINEAR KERNEL";
@@ -9,8 +15,12 @@ public class Kernel {
     public static final String RBF_KERNEL_TYPE = "RBF KERNEL";
     public static final String GAUSSIAN_KERNEL_TYPE = "GAUSSIAN KERNEL";
     public static final String SIGMOID_KERNEL_TYPE = "SIGMOID KERNEL";
+    public static final int TILE_SIZE = 64;
+    public static final int TILE_TASK_THRESHOLD = 4;
+    public static final int MAX_INTEGER_DEGREE = 64;
     private String type;
     private double[] params;
+    private KernelFunction function;
 
     public Kernel(String type, double... params) {
         this.type = type;
@@ -18,6 +28,7 @@ public class Kernel {
         for (int i = 0; i < params.length; i++) {
             this.params[i] = params[i];
         }
+        compile();
     }
 
     public Kernel(String type) {
@@ -32,8 +43,13 @@ public class Kernel {
         return this.params;
     }
 
+    public KernelFunction getFunction() {
+        return this.function;
+    }
+
     public void setType(String type) {
         this.type = type;
+        compile();
     }
 
     public void setParams(double[] params) {
@@ -41,10 +57,36 @@ public class Kernel {
         for (int i = 0; i < params.length; i++) {
             this.params[i] = params[i];
         }
+        compile();
     }
 
     public void setParam(double param, int index) {
         this.params[index] = param;
+        compile();
+    }
+
+    // resolve the type and params into a specialized function once instead of on every evaluation
+    private void compile() {
+        if (this.type.equals(LINEAR_KERNEL_TYPE)) {
+            this.function = new LinearKernelFunction();
+        } else if (this.params.length == 0) {
+            this.function = null;
+        } else if (this.type.equals(POLYNOMIAL_KERNEL_TYPE) && this.params.length > 1) {
+            double p = this.params[1];
+            if (p == Math.rint(p) && Math.abs(p) <= MAX_INTEGER_DEGREE) {
+                this.function = new IntegerPolynomialKernelFunction(this.params[0], (int) p);
+            } else {
+                this.function = new PolynomialKernelFunction(this.params[0], p);
+            }
+        } else if (this.type.equals(RBF_KERNEL_TYPE)) {
+            this.function = new RbfKernelFunction(this.params[0]);
+        } else if (this.type.equals(GAUSSIAN_KERNEL_TYPE)) {
+            this.function = new RbfKernelFunction(1.0d / (2.0d * this.params[0] * this.params[0]));
+        } else if (this.type.equals(SIGMOID_KERNEL_TYPE) && this.params.length > 1) {
+            this.function = new SigmoidKernelFunction(this.params[0], this.params[1]);
+        } else {
+            this.function = null;
+        }
     }
 
     public double linearKernel(double[] arrayX, double[] arrayY) {
@@ -52,15 +94,16 @@ public class Kernel {
     }
 
     public double polynomialKernel(double[] arrayX, double[] arrayY, double c, double p) {
-        return Math.pow(BasicAlgebra.calcInnerProduct(arrayX, arrayY) + c, p);
+        double value = BasicAlgebra.calcInnerProduct(arrayX, arrayY) + c;
+        return (p == Math.rint(p) && Math.abs(p) <= MAX_INTEGER_DEGREE) ? BasicMath.pow(value, (int) p) : Math.pow(value, p);
     }
 
     public double radialBasisFunctionKernel(double[] arrayX, double[] arrayY, double gamma) {
-        return Math.exp(-gamma * Math.pow(BasicAlgebra.calcEuclideanDistance(arrayX, arrayY), 2.0d));
+        return Math.exp(-gamma * BasicAlgebra.calcSquaredEuclideanDistance(arrayX, arrayY));
     }
 
     public double gaussianKernel(double[] arrayX, double[] arrayY, double sigma) {
-        return Math.exp(-Math.pow(BasicAlgebra.calcEuclideanDistance(arrayX, arrayY), 2.0d) / (2.0d * Math.pow(sigma, 2.0d)));
+        return Math.exp(-BasicAlgebra.calcSquaredEuclideanDistance(arrayX, arrayY) / (2.0d * sigma * sigma));
     }
 
     public double sigmoidKernel(double[] arrayX, double[] arrayY, double c, double theta) {
@@ -68,43 +111,257 @@ public class Kernel {
     }
 
     public double kernelFunction(double[] arrayX, double[] arrayY) {
-        if (this.type.equals(LINEAR_KERNEL_TYPE)) {
-            return linearKernel(arrayX, arrayY);
-        } else if (this.type.equals(POLYNOMIAL_KERNEL_TYPE)) {
-            return polynomialKernel(arrayX, arrayY, this.params[0], this.params[1]);
-        } else if (this.type.equals(RBF_KERNEL_TYPE)) {
-            return radialBasisFunctionKernel(arrayX, arrayY, this.params[0]);
-        } else if (this.type.equals(GAUSSIAN_KERNEL_TYPE)) {
-            return gaussianKernel(arrayX, arrayY, this.params[0]);
-        } else if (this.type.equals(SIGMOID_KERNEL_TYPE)) {
-            return sigmoidKernel(arrayX, arrayY, this.params[0], this.params[1]);
+        if (this.function == null) {
+            return Double.NaN;
         }
-        return Double.NaN;
+        return this.function.calc(arrayX, arrayY);
     }
 
     public double kernelFunction(FeatureVector vecX, FeatureVector vecY) {
         return kernelFunction(vecX.getAllValues(), vecY.getAllValues());
     }
 
+    // squared norms should be cached by the caller, e.g. by calcSquaredNorms
+    public double kernelFunction(double[] arrayX, double squaredNormX, double[] arrayY, double squaredNormY) {
+        if (this.function == null) {
+            return Double.NaN;
+        }
+        return this.function.calcFromInnerProduct(BasicAlgebra.calcInnerProduct(arrayX, arrayY), squaredNormX, squaredNormY);
+    }
+
+    public static double[] calcSquaredNorms(FeatureVector[] vecs) {
+        double[] squaredNorms = new double[vecs.length];
+        for (int i = 0; i < squaredNorms.length; i++) {
+            squaredNorms[i] = BasicAlgebra.calcSquaredMagnitude(vecs[i].getAllValues());
+        }
+        return squaredNorms;
+    }
+
     public double[][] calcKernelMatrix(FeatureVector[] vecs) {
         double[][] kernelMatrix = new double[vecs.length][vecs.length];
-        for (int i = 0; i < kernelMatrix.length; i++) {
-            for (int j = i; j < kernelMatrix[0].length; j++) {
-                kernelMatrix[i][j] = kernelFunction(vecs[i].getAllValues(), vecs[j].getAllValues());
-                kernelMatrix[j][i] = kernelMatrix[i][j];
+        ParallelUtil.invoke(new KernelTileTask(this, vecs, null, kernelMatrix));
+        return kernelMatrix;
+    }
+
+    public SymmetricMatrix calcSymmetricKernelMatrix(FeatureVector[] vecs) {
+        SymmetricMatrix kernelMatrix = new SymmetricMatrix(vecs.length);
+        ParallelUtil.invoke(new KernelTileTask(this, vecs, kernelMatrix, null));
+        return kernelMatrix;
+    }
+
+    // build a file-backed kernel matrix row block by row block for datasets whose kernel matrix exceeds the heap
+    public MappedSymmetricMatrix calcKernelMatrix(FeatureVector[] vecs, String filePath) {
+        MappedSymmetricMatrix kernelMatrix = new MappedSymmetricMatrix(filePath, vecs.length);
+        double[] squaredNorms = calcSquaredNorms(vecs);
+        double[] row = new double[vecs.length];
+        for (int block = 0; block < kernelMatrix.getRowBlockSize(); block++) {
+            for (int i = kernelMatrix.getRowBlockStart(block); i < kernelMatrix.getRowBlockEnd(block); i++) {
+                for (int j = i; j < row.length; j++) {
+                    row[j] = kernelFunction(vecs[i].getAllValues(), squaredNorms[i], vecs[j].getAllValues(), squaredNorms[j]);
+                }
+                kernelMatrix.setRow(i, row);
             }
         }
+
+        kernelMatrix.force();
         return kernelMatrix;
     }
 
     public double[][] calcKernelMatrix(FeatureVector[] vecsX, FeatureVector[] vecsY) {
         double[][] kernelMatrix = new double[vecsX.length][vecsY.length];
+        double[] squaredNormsX = calcSquaredNorms(vecsX);
+        double[] squaredNormsY = calcSquaredNorms(vecsY);
         for (int i = 0; i < kernelMatrix.length; i++) {
-            for (int j = i; j < kernelMatrix[0].length; j++) {
-                kernelMatrix[i][j] = kernelFunction(vecsX[i].getAllValues(), vecsY[j].getAllValues());
-                kernelMatrix[j][i] = kernelMatrix[i][j];
+            double[] arrayX = vecsX[i].getAllValues();
+            for (int j = 0; j < kernelMatrix[0].length; j++) {
+                kernelMatrix[i][j] = kernelFunction(arrayX, squaredNormsX[i], vecsY[j].getAllValues(), squaredNormsY[j]);
             }
         }
         return kernelMatrix;
     }
+
+    // out[i - fromX][j - fromY] = K(arraysX[i], arraysY[j]) using cached squared norms
+    public void calcKernelBlock(double[][] arraysX, double[] squaredNormsX, int fromX, int toX,
+                                double[][] arraysY, double[] squaredNormsY, int fromY, int toY, double[][] out) {
+        for (int i = fromX; i < toX; i++) {
+            double[] arrayX = arraysX[i];
+            double[] outRow = out[i - fromX];
+            for (int j = fromY; j < toY; j++) {
+                double ip = BasicAlgebra.calcInnerProduct(arrayX, arraysY[j]);
+                outRow[j - fromY] = (this.function == null) ? Double.NaN : this.function.calcFromInnerProduct(ip, squaredNormsX[i], squaredNormsY[j]);
+            }
+        }
+    }
+
+    public static double[][] toArrays(FeatureVector[] vecs) {
+        double[][] arrays = new double[vecs.length][];
+        for (int i = 0; i < arrays.length; i++) {
+            arrays[i] = vecs[i].getAllValues();
+        }
+        return arrays;
+    }
+
+    private static final class LinearKernelFunction implements KernelFunction {
+        @Override
+        public double calc(double[] arrayX, double[] arrayY) {
+            return BasicAlgebra.calcInnerProduct(arrayX, arrayY);
+        }
+
+        @Override
+        public double calcFromInnerProduct(double innerProduct, double squaredNormX, double squaredNormY) {
+            return innerProduct;
+        }
+    }
+
+    private static final class PolynomialKernelFunction implements KernelFunction {
+        private final double c, p;
+
+        private PolynomialKernelFunction(double c, double p) {
+            this.c = c;
+            this.p = p;
+        }
+
+        @Override
+        public double calc(double[] arrayX, double[] arrayY) {
+            return Math.pow(BasicAlgebra.calcInnerProduct(arrayX, arrayY) + this.c, this.p);
+        }
+
+        @Override
+        public double calcFromInnerProduct(double innerProduct, double squaredNormX, double squaredNormY) {
+            return Math.pow(innerProduct + this.c, this.p);
+        }
+    }
+
+    private static final class IntegerPolynomialKernelFunction implements KernelFunction {
+        private final double c;
+        private final int p;
+
+        private IntegerPolynomialKernelFunction(double c, int p) {
+            this.c = c;
+            this.p = p;
+        }
+
+        @Override
+        public double calc(double[] arrayX, double[] arrayY) {
+            return BasicMath.pow(BasicAlgebra.calcInnerProduct(arrayX, arrayY) + this.c, this.p);
+        }
+
+        @Override
+        public double calcFromInnerProduct(double innerProduct, double squaredNormX, double squaredNormY) {
+            return BasicMath.pow(innerProduct + this.c, this.p);
+        }
+    }
+
+    // also used for the Gaussian kernel with gamma = 1 / (2 * sigma^2)
+    private static final class RbfKernelFunction implements KernelFunction {
+        private final double gamma;
+
+        private RbfKernelFunction(double gamma) {
+            this.gamma = gamma;
+        }
+
+        @Override
+        public double calc(double[] arrayX, double[] arrayY) {
+            return Math.exp(-this.gamma * BasicAlgebra.calcSquaredEuclideanDistance(arrayX, arrayY));
+        }
+
+        @Override
+        public double calcFromInnerProduct(double innerProduct, double squaredNormX, double squaredNormY) {
+            // ||x - y||^2 = ||x||^2 + ||y||^2 - 2x.y can be slightly negative due to rounding errors
+            double squaredDist = squaredNormX + squaredNormY - 2.0d * innerProduct;
+            return Math.exp(-this.gamma * ((squaredDist > 0.0d) ? squaredDist : 0.0d));
+        }
+    }
+
+    private static final class SigmoidKernelFunction implements KernelFunction {
+        private final double c, theta;
+
+        private SigmoidKernelFunction(double c, double theta) {
+            this.c = c;
+            this.theta = theta;
+        }
+
+        @Override
+        public double calc(double[] arrayX, double[] arrayY) {
+            return Math.tanh(this.c * BasicAlgebra.calcInnerProduct(arrayX, arrayY) + this.theta);
+        }
+
+        @Override
+        public double calcFromInnerProduct(double innerProduct, double squaredNormX, double squaredNormY) {
+            return Math.tanh(this.c * innerProduct + this.theta);
+        }
+    }
+
+    // computes the tiles (rowTile, columnTile) with rowTile <= columnTile of the upper triangle in [from, to)
+    private static class KernelTileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Kernel kernel;
+        private final double[][] arrays;
+        private final double[] squaredNorms;
+        private final SymmetricMatrix symmetricMatrix;
+        private final double[][] matrix;
+        private final int sideTileCount, from, to;
+
+        private KernelTileTask(Kernel kernel, double[][] arrays, double[] squaredNorms, SymmetricMatrix symmetricMatrix, double[][] matrix, int from, int to) {
+            this.kernel = kernel;
+            this.arrays = arrays;
+            this.squaredNorms = squaredNorms;
+            this.symmetricMatrix = symmetricMatrix;
+            this.matrix = matrix;
+            this.sideTileCount = (arrays.length + TILE_SIZE - 1) / TILE_SIZE;
+            this.from = from;
+            this.to = to;
+        }
+
+        KernelTileTask(Kernel kernel, FeatureVector[] vecs, SymmetricMatrix symmetricMatrix, double[][] matrix) {
+            this(kernel, toArrays(vecs), calcSquaredNorms(vecs), symmetricMatrix, matrix, 0, calcTileCount(vecs.length));
+        }
+
+        private static int calcTileCount(int size) {
+            int sideTileCount = (size + TILE_SIZE - 1) / TILE_SIZE;
+            return sideTileCount * (sideTileCount + 1) / 2;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= TILE_TASK_THRESHOLD) {
+                for (int tile = this.from; tile < this.to; tile++) {
+                    computeTile(tile);
+                }
+                return;
+            }
+
+            int mid = (this.from + this.to) >>> 1;
+            invokeAll(new KernelTileTask(this.kernel, this.arrays, this.squaredNorms, this.symmetricMatrix, this.matrix, this.from, mid),
+                    new KernelTileTask(this.kernel, this.arrays, this.squaredNorms, this.symmetricMatrix, this.matrix, mid, this.to));
+        }
+
+        private void computeTile(int tile) {
+            // decode the tile index into (rowTile, columnTile) in row-major order of the upper triangle
+            int rowTile = 0;
+            int rest = tile;
+            while (rest >= this.sideTileCount - rowTile) {
+                rest -= this.sideTileCount - rowTile;
+                rowTile++;
+            }
+
+            int columnTile = rowTile + rest;
+            int rowEnd = Math.min((rowTile + 1) * TILE_SIZE, this.arrays.length);
+            int columnStart = columnTile * TILE_SIZE;
+            int columnEnd = Math.min(columnStart + TILE_SIZE, this.arrays.length);
+            for (int i = rowTile * TILE_SIZE; i < rowEnd; i++) {
+                for (int j = (rowTile == columnTile) ? i : columnStart; j < columnEnd; j++) {
+                    double value = this.kernel.kernelFunction(this.arrays[i], this.squaredNorms[i], this.arrays[j], this.squaredNorms[j]);
+                    if (this.symmetricMatrix != null) {
+                        this.symmetricMatrix.set(i, j, value);
+                    }
+
+                    if (this.matrix != null) {
+                        this.matrix[i][j] = value;
+                        this.matrix[j][i] = value;
+                    }
+                }
+            }
+        }
+    }
 }
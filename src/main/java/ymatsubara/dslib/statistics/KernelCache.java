@@ -0,0 +1,138 @@
+package ymatsubara.dslib.statistics;
+
+import ymatsubara.dslib.structure.FeatureVector;
+import ymatsubara.dslib.structure.SymmetricMatrix;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// LIBSVM-style kernel matrix whose rows are computed on demand and kept in an LRU cache (not thread-safe)
+public class KernelCache extends SymmetricMatrix {
+    public static final long DEFAULT_CACHE_BYTES = 100L * 1024L * 1024L;
+    public static final int MIN_ROW_SIZE = 2;
+    private Kernel kernel;
+    private FeatureVector[] vecs;
+    private double[] diagonal, squaredNorms;
+    private LinkedHashMap<Integer, double[]> rowMap;
+    private int maxRowSize;
+    private long hitCount, missCount;
+
+    public KernelCache(Kernel kernel, FeatureVector[] vecs, long cacheBytes) {
+        this.size = vecs.length;
+        this.kernel = kernel;
+        this.vecs = vecs;
+        this.squaredNorms = Kernel.calcSquaredNorms(vecs);
+        this.diagonal = new double[vecs.length];
+        for (int i = 0; i < this.diagonal.length; i++) {
+            this.diagonal[i] = kernel.kernelFunction(vecs[i].getAllValues(), vecs[i].getAllValues());
+        }
+
+        long rowBytes = 8L * (long) Math.max(vecs.length, 1);
+        this.maxRowSize = (int) Math.max((long) MIN_ROW_SIZE, Math.min(cacheBytes / rowBytes, (long) vecs.length));
+        final int capacity = this.maxRowSize;
+        this.rowMap = new LinkedHashMap<Integer, double[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, double[]> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.hitCount = 0L;
+        this.missCount = 0L;
+    }
+
+    public KernelCache(Kernel kernel, FeatureVector[] vecs) {
+        this(kernel, vecs, DEFAULT_CACHE_BYTES);
+    }
+
+    private double[] loadRow(int row) {
+        double[] array = this.rowMap.get(row);
+        if (array != null) {
+            this.hitCount++;
+            return array;
+        }
+
+        this.missCount++;
+        array = new double[this.size];
+        double[] values = this.vecs[row].getAllValues();
+        double squaredNorm = this.squaredNorms[row];
+        for (int i = 0; i < this.size; i++) {
+            array[i] = (i == row) ? this.diagonal[i] : this.kernel.kernelFunction(values, squaredNorm, this.vecs[i].getAllValues(), this.squaredNorms[i]);
+        }
+
+        this.rowMap.put(row, array);
+        return array;
+    }
+
+    @Override
+    public void set(int i, int j, double value) {
+        System.err.println("KernelCache is read-only.");
+    }
+
+    @Override
+    public void setRow(int row, double[] values) {
+        System.err.println("KernelCache is read-only.");
+    }
+
+    @Override
+    public double get(int i, int j) {
+        if (i == j) {
+            return this.diagonal[i];
+        }
+
+        double[] array = this.rowMap.get(i);
+        if (array != null) {
+            this.hitCount++;
+            return array[j];
+        }
+
+        array = this.rowMap.get(j);
+        if (array != null) {
+            this.hitCount++;
+            return array[i];
+        }
+        return loadRow(i)[j];
+    }
+
+    @Override
+    public void getRow(int row, double[] out) {
+        System.arraycopy(loadRow(row), 0, out, 0, this.size);
+    }
+
+    @Override
+    public void getRowEntries(int row, int[] indices, int size, double[] out) {
+        double[] array = loadRow(row);
+        for (int s = 0; s < size; s++) {
+            out[indices[s]] = array[indices[s]];
+        }
+    }
+
+    @Override
+    public double getDiagonal(int index) {
+        return this.diagonal[index];
+    }
+
+    @Override
+    public double[][] toMatrix() {
+        double[][] matrix = new double[this.size][];
+        for (int i = 0; i < this.size; i++) {
+            matrix[i] = getRow(i);
+        }
+        return matrix;
+    }
+
+    public int getMaxRowSize() {
+        return this.maxRowSize;
+    }
+
+    public long getHitCount() {
+        return this.hitCount;
+    }
+
+    public long getMissCount() {
+        return this.missCount;
+    }
+
+    public void clear() {
+        this.rowMap.clear();
+    }
+}
@@ -0,0 +1,8 @@
+package ymatsubara.dslib.statistics;
+
+public interface KernelFunction {
+    double calc(double[] arrayX, double[] arrayY);
+
+    // evaluate the kernel from x.y, ||x||^2 and ||y||^2, which turns distance-based kernels into dot products
+    double calcFromInnerProduct(double innerProduct, double squaredNormX, double squaredNormY);
+}
@@ -0,0 +1,61 @@
+package ymatsubara.dslib.structure;
+
+// read-only view of the rows and columns of a symmetric matrix selected by indices, e.g. a training subset of a kernel matrix
+public class IndexedSymmetricMatrix extends SymmetricMatrix {
+    private SymmetricMatrix matrix;
+    private int[] indices;
+    private double[] buffer;
+
+    public IndexedSymmetricMatrix(SymmetricMatrix matrix, int[] indices) {
+        this.size = indices.length;
+        this.matrix = matrix;
+        this.indices = indices;
+        this.buffer = new double[matrix.getRowSize()];
+    }
+
+    // all the indices of the matrix except the given one
+    public static int[] excludeIndex(int size, int excludedIndex) {
+        int[] indices = new int[size - 1];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = (i < excludedIndex) ? i : i + 1;
+        }
+        return indices;
+    }
+
+    @Override
+    public void set(int i, int j, double value) {
+        System.err.println("IndexedSymmetricMatrix is read-only.");
+    }
+
+    @Override
+    public void setRow(int row, double[] values) {
+        System.err.println("IndexedSymmetricMatrix is read-only.");
+    }
+
+    @Override
+    public double get(int i, int j) {
+        return this.matrix.get(this.indices[i], this.indices[j]);
+    }
+
+    @Override
+    public void getRow(int row, double[] out) {
+        this.matrix.getRow(this.indices[row], this.buffer);
+        for (int i = 0; i < this.size; i++) {
+            out[i] = this.buffer[this.indices[i]];
+        }
+    }
+
+    @Override
+    public double getDiagonal(int index) {
+        return this.matrix.getDiagonal(this.indices[index]);
+    }
+
+    @Override
+    public double[][] toMatrix() {
+        double[][] matrix = new double[this.size][];
+        for (int i = 0; i < this.size; i++) {
+            matrix[i] = getRow(i);
+        }
+        return matrix;
+    }
+}
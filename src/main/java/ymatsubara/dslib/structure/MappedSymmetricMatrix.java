@@ -0,0 +1,249 @@
+package ymatsubara.dslib.structure;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+File layout
+[header page] magic number, size, row block bytes
+[row block 0] packed upper triangle of rows [s0, s1), starting at a page boundary
+[row block 1] packed upper triangle of rows [s1, s2), starting at a page boundary
+...
+ */
+public class MappedSymmetricMatrix extends SymmetricMatrix implements Closeable {
+    public static final long MAGIC_NUMBER = 0x44534C49424D4154L;
+    public static final int PAGE_SIZE = 4096;
+    public static final long DEFAULT_ROW_BLOCK_BYTES = 64L * 1024L * 1024L;
+    private static final int DOUBLE_BYTES = 8;
+    private String filePath;
+    private RandomAccessFile file;
+    private MappedByteBuffer[] mappedBlocks;
+    private DoubleBuffer[] rowBlocks;
+    private int[] blockStartRows, rowBlockIndices, rowOffsets;
+
+    private MappedSymmetricMatrix(String filePath, int size, long rowBlockBytes, boolean writable) {
+        this.filePath = filePath;
+        this.size = size;
+        initRowBlocks(rowBlockBytes);
+        try {
+            this.file = new RandomAccessFile(new File(filePath), writable ? "rw" : "r");
+            FileChannel channel = this.file.getChannel();
+            FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+            long offset = PAGE_SIZE;
+            this.mappedBlocks = new MappedByteBuffer[this.blockStartRows.length - 1];
+            this.rowBlocks = new DoubleBuffer[this.mappedBlocks.length];
+            for (int i = 0; i < this.rowBlocks.length; i++) {
+                long bytes = calcRowBlockLength(this.blockStartRows[i], this.blockStartRows[i + 1]) * DOUBLE_BYTES;
+                if (writable && this.file.length() < offset + bytes) {
+                    this.file.setLength(offset + bytes);
+                }
+
+                this.mappedBlocks[i] = channel.map(mode, offset, bytes);
+                this.mappedBlocks[i].order(ByteOrder.nativeOrder());
+                this.rowBlocks[i] = this.mappedBlocks[i].asDoubleBuffer();
+                offset += alignToPage(bytes);
+            }
+
+            if (writable) {
+                this.file.seek(0L);
+                this.file.writeLong(MAGIC_NUMBER);
+                this.file.writeInt(size);
+                this.file.writeLong(rowBlockBytes);
+            }
+        } catch (IOException e) {
+            close();
+            throw new IllegalStateException("Failed to map " + filePath + " : " + e.toString(), e);
+        }
+    }
+
+    // create a new file of a size x size matrix to be filled row by row
+    public MappedSymmetricMatrix(String filePath, int size, long rowBlockBytes) {
+        this(filePath, size, rowBlockBytes, true);
+    }
+
+    public MappedSymmetricMatrix(String filePath, int size) {
+        this(filePath, size, DEFAULT_ROW_BLOCK_BYTES);
+    }
+
+    // open an existing file as a read-only matrix
+    public static MappedSymmetricMatrix open(String filePath) {
+        long magicNumber;
+        int size;
+        long rowBlockBytes;
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(new File(filePath), "r");
+            magicNumber = file.readLong();
+            size = file.readInt();
+            rowBlockBytes = file.readLong();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open " + filePath + " : " + e.toString(), e);
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    System.err.println("Exception @ open(String) : " + e.toString());
+                }
+            }
+        }
+
+        if (magicNumber != MAGIC_NUMBER) {
+            throw new IllegalArgumentException("This file is not for MappedSymmetricMatrix : " + filePath);
+        }
+        return new MappedSymmetricMatrix(filePath, size, rowBlockBytes, false);
+    }
+
+    private static long calcRowBlockLength(int startRow, int endRow, int size) {
+        return SymmetricMatrix.calcPackedIndex(size, endRow - 1, size - 1) + 1L - SymmetricMatrix.calcPackedIndex(size, startRow, startRow);
+    }
+
+    private long calcRowBlockLength(int startRow, int endRow) {
+        return calcRowBlockLength(startRow, endRow, this.size);
+    }
+
+    private static long alignToPage(long bytes) {
+        return (bytes + PAGE_SIZE - 1L) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    private void initRowBlocks(long rowBlockBytes) {
+        long maxLength = Math.max(Math.min(rowBlockBytes, (long) Integer.MAX_VALUE) / DOUBLE_BYTES, (long) this.size);
+        int blockSize = 0;
+        int[] startRows = new int[this.size + 1];
+        this.rowBlockIndices = new int[this.size];
+        this.rowOffsets = new int[this.size];
+        int startRow = 0;
+        long length = 0L;
+        for (int i = 0; i < this.size; i++) {
+            long rowLength = this.size - i;
+            if (i == startRow || length + rowLength > maxLength) {
+                startRows[blockSize] = i;
+                blockSize++;
+                startRow = i;
+                length = 0L;
+            }
+
+            this.rowBlockIndices[i] = blockSize - 1;
+            this.rowOffsets[i] = (int) length;
+            length += rowLength;
+        }
+
+        startRows[blockSize] = this.size;
+        this.blockStartRows = new int[blockSize + 1];
+        System.arraycopy(startRows, 0, this.blockStartRows, 0, blockSize + 1);
+    }
+
+    public String getFilePath() {
+        return this.filePath;
+    }
+
+    public int getRowBlockSize() {
+        return this.rowBlocks.length;
+    }
+
+    public int getRowBlockStart(int block) {
+        return this.blockStartRows[block];
+    }
+
+    public int getRowBlockEnd(int block) {
+        return this.blockStartRows[block + 1];
+    }
+
+    @Override
+    public void set(int i, int j, double value) {
+        if (i > j) {
+            int tmp = i;
+            i = j;
+            j = tmp;
+        }
+        this.rowBlocks[this.rowBlockIndices[i]].put(this.rowOffsets[i] + j - i, value);
+    }
+
+    @Override
+    public double get(int i, int j) {
+        if (i > j) {
+            int tmp = i;
+            i = j;
+            j = tmp;
+        }
+        return this.rowBlocks[this.rowBlockIndices[i]].get(this.rowOffsets[i] + j - i);
+    }
+
+    @Override
+    public void setRow(int row, double[] values) {
+        DoubleBuffer buffer = this.rowBlocks[this.rowBlockIndices[row]].duplicate();
+        buffer.position(this.rowOffsets[row]);
+        buffer.put(values, row, this.size - row);
+    }
+
+    @Override
+    public void getRow(int row, double[] out) {
+        for (int i = 0; i < row; i++) {
+            out[i] = this.rowBlocks[this.rowBlockIndices[i]].get(this.rowOffsets[i] + row - i);
+        }
+
+        DoubleBuffer buffer = this.rowBlocks[this.rowBlockIndices[row]].duplicate();
+        buffer.position(this.rowOffsets[row]);
+        buffer.get(out, row, this.size - row);
+    }
+
+    @Override
+    public double[][] toMatrix() {
+        double[][] matrix = new double[this.size][this.size];
+        for (int i = 0; i < this.size; i++) {
+            DoubleBuffer buffer = this.rowBlocks[this.rowBlockIndices[i]];
+            int offset = this.rowOffsets[i] - i;
+            for (int j = i; j < this.size; j++) {
+                double value = buffer.get(offset + j);
+                matrix[i][j] = value;
+                matrix[j][i] = value;
+            }
+        }
+        return matrix;
+    }
+
+    public void force() {
+        if (this.mappedBlocks == null) {
+            return;
+        }
+
+        for (MappedByteBuffer mappedBlock : this.mappedBlocks) {
+            if (mappedBlock == null || mappedBlock.isReadOnly()) {
+                return;
+            }
+            mappedBlock.force();
+        }
+    }
+
+    // the matrix must not be accessed after it is closed
+    @Override
+    public void close() {
+        if (this.file == null) {
+            return;
+        }
+
+        try {
+            force();
+            this.file.close();
+        } catch (IOException e) {
+            System.err.println("Exception @ close() : " + e.toString());
+        }
+        this.file = null;
+        this.mappedBlocks = null;
+        this.rowBlocks = null;
+    }
+
+    // closes the matrix and deletes its file
+    public void delete() {
+        close();
+        if (!new File(this.filePath).delete()) {
+            System.err.println("Failed to delete " + this.filePath);
+        }
+    }
+}
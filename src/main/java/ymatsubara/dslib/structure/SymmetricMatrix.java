@@ -1,26 +1,44 @@
 package ymatsubara.dslib.structure;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public class SymmetricMatrix {
-    private List<Double> list;
-    private int size;
+    // packed upper triangle is split into blocks so that more than 2^31 - 1 elements can be stored
+    public static final int BLOCK_BITS = 27;
+    public static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+    public static final long BLOCK_MASK = BLOCK_SIZE - 1L;
+    private double[][] blocks;
+    protected int size;
 
-    public SymmetricMatrix(double[][] matrix) {
-        this.list = new ArrayList<>();
-        if (matrix.length == 0 || matrix.length != matrix[0].length) {
-            return;
+    protected SymmetricMatrix() {
+        this.size = 0;
+    }
+
+    public SymmetricMatrix(int size) {
+        this.size = size;
+        long length = calcPackedLength(size);
+        int blockCount = (int) ((length + BLOCK_MASK) >>> BLOCK_BITS);
+        this.blocks = new double[blockCount][];
+        for (int i = 0; i < blockCount; i++) {
+            long remaining = length - ((long) i << BLOCK_BITS);
+            this.blocks[i] = new double[(int) Math.min(remaining, (long) BLOCK_SIZE)];
         }
+    }
 
-        this.size = matrix.length;
-        for (int i = 0; i < matrix.length; i++) {
-            for (int j = i; j < matrix[0].length; j++) {
-                this.list.add(matrix[i][j]);
-            }
+    public SymmetricMatrix(double[][] matrix) {
+        this((matrix.length == 0 || matrix.length != matrix[0].length) ? 0 : matrix.length);
+        for (int i = 0; i < this.size; i++) {
+            setRow(i, matrix[i]);
         }
     }
 
+    public static long calcPackedLength(int size) {
+        return (long) size * (long) (size + 1) / 2L;
+    }
+
+    // index of (i, j) for i <= j in the packed upper triangle
+    public static long calcPackedIndex(int size, int i, int j) {
+        return (long) i * (long) size - (long) i * (long) (i + 1) / 2L + (long) j;
+    }
+
     public void set(int i, int j, double value) {
         if (i > j) {
             int tmp = i;
@@ -28,9 +46,8 @@ public class SymmetricMatrix {
             j = tmp;
         }
 
-        int sum = (i + 1) * i / 2;
-        int index = i * this.size - sum + j;
-        this.list.add(index, value);
+        long index = calcPackedIndex(this.size, i, j);
+        this.blocks[(int) (index >>> BLOCK_BITS)][(int) (index & BLOCK_MASK)] = value;
     }
 
     public double get(int i, int j) {
@@ -40,25 +57,62 @@ public class SymmetricMatrix {
             j = tmp;
         }
 
-        int sum = (i + 1) * i / 2;
-        int index = i * this.size - sum + j;
-        return this.list.get(index);
+        long index = calcPackedIndex(this.size, i, j);
+        return this.blocks[(int) (index >>> BLOCK_BITS)][(int) (index & BLOCK_MASK)];
+    }
+
+    // set values[row..size-1] to the upper part of the row
+    public void setRow(int row, double[] values) {
+        long index = calcPackedIndex(this.size, row, row);
+        for (int j = row; j < this.size; j++) {
+            this.blocks[(int) (index >>> BLOCK_BITS)][(int) (index & BLOCK_MASK)] = values[j];
+            index++;
+        }
+    }
+
+    public void getRow(int row, double[] out) {
+        // left part of the row is stored column-wise in the rows above
+        for (int i = 0; i < row; i++) {
+            long index = calcPackedIndex(this.size, i, row);
+            out[i] = this.blocks[(int) (index >>> BLOCK_BITS)][(int) (index & BLOCK_MASK)];
+        }
+
+        // right part of the row is contiguous
+        long index = calcPackedIndex(this.size, row, row);
+        int j = row;
+        while (j < this.size) {
+            double[] block = this.blocks[(int) (index >>> BLOCK_BITS)];
+            int offset = (int) (index & BLOCK_MASK);
+            int length = Math.min(this.size - j, block.length - offset);
+            System.arraycopy(block, offset, out, j, length);
+            j += length;
+            index += length;
+        }
+    }
+
+    // set out[indices[s]] to the (row, indices[s]) entry for every s < size, e.g. only the active set of a solver
+    public void getRowEntries(int row, int[] indices, int size, double[] out) {
+        for (int s = 0; s < size; s++) {
+            out[indices[s]] = get(row, indices[s]);
+        }
     }
 
     public double[] getRow(int row) {
         double[] array = new double[this.size];
-        for (int i = 0; i < size; i++) {
-            array[i] = get(row, i);
-        }
+        getRow(row, array);
         return array;
     }
 
+    public void getColumn(int column, double[] out) {
+        getRow(column, out);
+    }
+
     public double[] getColumn(int column) {
-        double[] array = new double[this.size];
-        for (int i = 0; i < size; i++) {
-            array[i] = get(i, column);
-        }
-        return array;
+        return getRow(column);
+    }
+
+    public double getDiagonal(int index) {
+        return get(index, index);
     }
 
     public int getRowSize() {
@@ -72,16 +126,12 @@ public class SymmetricMatrix {
     public double[][] toMatrix() {
         double[][] matrix = new double[this.size][this.size];
         for (int i = 0; i < this.size; i++) {
-            for (int j = 0; j < this.size; j++) {
-                if (i > j) {
-                    int tmp = i;
-                    i = j;
-                    j = tmp;
-                }
-
-                int sum = (i + 1) * i / 2;
-                int index = i * this.size - sum + j;
-                matrix[i][j] = this.list.get(index);
+            long index = calcPackedIndex(this.size, i, i);
+            for (int j = i; j < this.size; j++) {
+                double value = this.blocks[(int) (index >>> BLOCK_BITS)][(int) (index & BLOCK_MASK)];
+                matrix[i][j] = value;
+                matrix[j][i] = value;
+                index++;
             }
         }
         return matrix;
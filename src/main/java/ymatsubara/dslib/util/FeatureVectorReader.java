@@ -0,0 +1,79 @@
+package ymatsubara.dslib.util;
+
+import ymatsubara.dslib.structure.FeatureVector;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+
+// reads the dense vectors of a FeatureVectorUtil input file a batch at a time, so only one batch is held in memory
+public class FeatureVectorReader implements Closeable {
+    private final File inputFile;
+    private final boolean hasId;
+    private BufferedReader br;
+    private long vecCount;
+    private boolean finished;
+
+    public FeatureVectorReader(String inputFilePath, boolean hasId) {
+        this.inputFile = new File(inputFilePath);
+        this.hasId = hasId;
+        reset();
+    }
+
+    // reopens the file to read it from the beginning again
+    public void reset() {
+        close();
+        this.vecCount = 0L;
+        this.finished = false;
+        try {
+            this.br = new BufferedReader(new FileReader(this.inputFile));
+        } catch (Exception e) {
+            System.err.println("Invalid file for FeatureVector class : " + this.inputFile.getName());
+            this.finished = true;
+        }
+    }
+
+    // fills the head of the batch with the next vectors and returns their number, which is 0 at the end of the file
+    public int readBatch(FeatureVector[] batch) {
+        int size = 0;
+        try {
+            String line;
+            while (size < batch.length && !this.finished) {
+                line = this.br.readLine();
+                if (line == null || line.length() == 0) {
+                    this.finished = true;
+                    break;
+                } else if (line.startsWith(FeatureVectorUtil.COMMENT_OUT)) {
+                    continue;
+                }
+
+                batch[size++] = FeatureVectorUtil.parseFeatureVector(line, this.hasId, this.vecCount);
+                this.vecCount++;
+            }
+        } catch (Exception e) {
+            System.err.println("Exception @ readBatch(FeatureVector[]) : " + e.toString());
+            this.finished = true;
+        }
+        return size;
+    }
+
+    // number of vectors read since the file was opened
+    public long getVectorCount() {
+        return this.vecCount;
+    }
+
+    @Override
+    public void close() {
+        if (this.br == null) {
+            return;
+        }
+
+        try {
+            this.br.close();
+        } catch (Exception e) {
+            System.err.println("Exception @ close() : " + e.toString());
+        }
+        this.br = null;
+    }
+}
@@ -27,7 +27,6 @@ public class FeatureVectorUtil {
     public static FeatureVector[] generateFeatureVectors(String inputFilePath, boolean hasId) {
         File inputFile = new File(inputFilePath);
         List<FeatureVector> vecList = new ArrayList<>();
-        int startIndex = (hasId)? 2 : 1;
         try {
             BufferedReader br = new BufferedReader(new FileReader(inputFile));
             String line;
@@ -37,30 +36,7 @@ public class FeatureVectorUtil {
                     continue;
                 }
 
-                String[] params = line.split("\t");
-                if (params.length < startIndex + 1) {
-                    params = line.split(",");
-                    if (params.length < startIndex + 1) {
-                        params = line.split(" ");
-                    }
-                }
-
-                List<Integer> indexList = new ArrayList<>();
-                List<Double> valueList = new ArrayList<>();
-                String id = (hasId) ? params[0] : String.valueOf(vecCount);
-                String label = (hasId) ? params[1] : params[0];
-                FeatureVector vec = new FeatureVector(id, label, params.length - startIndex);
-                for (int i = startIndex; i < params.length; i++) {
-                    String[] keyValue = params[i].split(":");
-                    if (keyValue.length == 2) {
-                        indexList.add(Integer.parseInt(keyValue[0]));
-                        valueList.add(Double.parseDouble(keyValue[1]));
-                    } else {
-                        valueList.add(Double.parseDouble(params[i]));
-                    }
-                }
-
-                vec.setValues(valueList);
+                FeatureVector vec = parseFeatureVector(line, hasId, vecCount);
                 vecList.add(vec);
                 vecCount++;
             }
@@ -71,6 +47,36 @@ public class FeatureVectorUtil {
         return vecList.toArray(new FeatureVector[vecList.size()]);
     }
 
+    // parses a non-comment line in the format above, where vecCount is used as the id if hasId is false
+    public static FeatureVector parseFeatureVector(String line, boolean hasId, long vecCount) {
+        int startIndex = (hasId)? 2 : 1;
+        String[] params = line.split("\t");
+        if (params.length < startIndex + 1) {
+            params = line.split(",");
+            if (params.length < startIndex + 1) {
+                params = line.split(" ");
+            }
+        }
+
+        List<Integer> indexList = new ArrayList<>();
+        List<Double> valueList = new ArrayList<>();
+        String id = (hasId) ? params[0] : String.valueOf(vecCount);
+        String label = (hasId) ? params[1] : params[0];
+        FeatureVector vec = new FeatureVector(id, label, params.length - startIndex);
+        for (int i = startIndex; i < params.length; i++) {
+            String[] keyValue = params[i].split(":");
+            if (keyValue.length == 2) {
+                indexList.add(Integer.parseInt(keyValue[0]));
+                valueList.add(Double.parseDouble(keyValue[1]));
+            } else {
+                valueList.add(Double.parseDouble(params[i]));
+            }
+        }
+
+        vec.setValues(valueList);
+        return vec;
+    }
+
     public static FeatureVector[] getTargetVectors(FeatureVector[] vecs, String targetLabel) {
         List<FeatureVector> vecList = new ArrayList<>();
         for (FeatureVector vec : vecs) {
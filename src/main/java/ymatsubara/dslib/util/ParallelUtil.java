@@ -0,0 +1,24 @@
+package ymatsubara.dslib.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+public class ParallelUtil {
+    public static final int DEFAULT_THREAD_SIZE = Runtime.getRuntime().availableProcessors();
+    private static ForkJoinPool forkJoinPool;
+
+    public static synchronized ForkJoinPool getForkJoinPool() {
+        if (forkJoinPool == null) {
+            forkJoinPool = new ForkJoinPool(DEFAULT_THREAD_SIZE);
+        }
+        return forkJoinPool;
+    }
+
+    // run the task in the current pool if already called from a fork-join task, otherwise in the shared pool
+    public static <T> T invoke(ForkJoinTask<T> task) {
+        if (ForkJoinTask.inForkJoinPool()) {
+            return task.invoke();
+        }
+        return getForkJoinPool().invoke(task);
+    }
+}
@@ -0,0 +1,56 @@
+package ymatsubara.dslib.optimization;
+
+import org.junit.Test;
+import ymatsubara.dslib.structure.SymmetricMatrix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DecompositionTest {
+    private static final double DELTA = 1.0e-12d;
+    private static final double C = 1.0d;
+    private static final int[] LABELS = {Decomposition.POSITIVE_VALUE, Decomposition.NEGATIVE_VALUE,
+            Decomposition.POSITIVE_VALUE, Decomposition.NEGATIVE_VALUE};
+    private static final double[] ALPHAS = {0.0d, 0.0d, 1.0d, 1.0d};
+    private static final double[] GRADIENTS = {-0.5d, -0.6d, 0.2d, 0.9d};
+    private static final int[] ACTIVE_SET = {0, 1, 2, 3};
+
+    // I_up = {y = 1, alpha < c} + {y = -1, alpha > 0} maximizes -yG, I_low = {y = 1, alpha > 0} + {y = -1, alpha < c} maximizes yG
+    @Test
+    public void calcMaxViolationsWithMixedLabels() {
+        double[] gradientMaxes = Decomposition.calcMaxViolations(C, LABELS, ALPHAS, GRADIENTS, ACTIVE_SET, ACTIVE_SET.length);
+        assertArrayEquals(new double[]{0.9d, 0.6d}, gradientMaxes, DELTA);
+    }
+
+    @Test
+    public void calcMaxViolationsAgreesWithWorkingSetSelection3() {
+        SymmetricMatrix kernelMatrix = new SymmetricMatrix(LABELS.length);
+        for (int i = 0; i < LABELS.length; i++) {
+            kernelMatrix.set(i, i, 1.0d);
+        }
+
+        double[] gradientMaxes = Decomposition.calcMaxViolations(C, LABELS, ALPHAS, GRADIENTS, ACTIVE_SET, ACTIVE_SET.length);
+        double gap = gradientMaxes[0] + gradientMaxes[1];
+        int[] workingSet = Decomposition.workingSetSelection3(C, 1.0e-12d, gap + 1.0e-6d, LABELS, kernelMatrix, ALPHAS, GRADIENTS);
+        assertArrayEquals(new int[]{-1, -1}, workingSet);
+        workingSet = Decomposition.workingSetSelection3(C, 1.0e-12d, gap - 1.0e-6d, LABELS, kernelMatrix, ALPHAS, GRADIENTS);
+        assertEquals(3, workingSet[0]);
+        assertTrue(workingSet[1] >= 0);
+    }
+
+    @Test
+    public void shrinkActiveSetWithMixedLabels() {
+        // index 4 (y = -1 at 0) still violates the optimality against index 3, while index 5 (y = 1 at 0) cannot move and is shrunk
+        int[] labels = {Decomposition.POSITIVE_VALUE, Decomposition.NEGATIVE_VALUE, Decomposition.POSITIVE_VALUE,
+                Decomposition.NEGATIVE_VALUE, Decomposition.NEGATIVE_VALUE, Decomposition.POSITIVE_VALUE};
+        double[] alphas = {0.0d, 0.0d, 1.0d, 1.0d, 0.0d, 0.0d};
+        double[] gradients = {-0.5d, -0.6d, 0.2d, 0.9d, 0.7d, 2.0d};
+        int[] activeSet = {0, 1, 2, 3, 4, 5};
+        double[] gradientMaxes = Decomposition.calcMaxViolations(C, labels, alphas, gradients, activeSet, activeSet.length);
+        assertArrayEquals(new double[]{0.9d, 0.6d}, gradientMaxes, DELTA);
+        int activeSize = Decomposition.shrinkActiveSet(C, gradientMaxes[0], gradientMaxes[1], labels, alphas, gradients, activeSet, activeSet.length);
+        assertEquals(5, activeSize);
+        assertEquals(5, activeSet[5]);
+    }
+}